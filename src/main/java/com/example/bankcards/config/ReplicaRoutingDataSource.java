@@ -0,0 +1,194 @@
+package com.example.bankcards.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Источник соединений, отправляющий транзакции @Transactional(readOnly = true) на реплики, остальные — на основную БД.
+ * Реплика выбирается по кругу среди доступных. Реплика исключается, если проверка (lag-query) не удалась
+ * или не удалось получить соединение, и возвращается после следующей успешной проверки.
+ * Реплика с отставанием больше max-staleness не используется; если подходящих реплик нет, чтение идет на основную БД.
+ * NULL из lag-query — отставание неизвестно: реплика доступна, но не используется до проверки с известным отставанием.
+ * <p>
+ * Признак readOnly выставляется после получения соединения менеджером транзакций, поэтому источник
+ * используется через LazyConnectionDataSourceProxy (ReplicaRoutingConfig): соединение берется при первом запросе
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    /**
+     * Отставание реплики в миллисекундах на PostgreSQL: 0, если все полученные изменения применены
+     * (иначе на простаивающей основной БД отставание росло бы без записи). Полученное сравнивается с примененным
+     * только при потоковой репликации (WAL receiver в состоянии streaming): без связи с основной БД
+     * реплика применила все, что успела получить, и выглядела бы актуальной — тогда отставание неизвестно (NULL).
+     * Состояние WAL receiver видно пользователю с ролью pg_read_all_stats, без нее реплика не используется
+     */
+    public static final String POSTGRES_LAG_QUERY = """
+            SELECT CASE
+                       WHEN NOT pg_is_in_recovery() THEN 0
+                       WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN NULL
+                       WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                       ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+                   END
+            """;
+
+    public static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxStalenessMillis;
+    private final String lagQuery;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter primaryConnections;
+    private final Counter fallbacks;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration maxStaleness,
+                                    String lagQuery, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.maxStalenessMillis = maxStaleness.toMillis();
+        this.lagQuery = lagQuery;
+        this.replicas = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica("replica-" + (i + 1), replicas.get(i), meterRegistry));
+        }
+        this.primaryConnections = connectionCounter(PRIMARY, meterRegistry);
+        this.fallbacks = Counter.builder("bankcards.datasource.replica.fallbacks")
+                .description("Транзакции только для чтения, отправленные на основную БД: нет доступной реплики")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !replicas.isEmpty()) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (!replica.isUsable(maxStalenessMillis)) {
+                    continue;
+                }
+                try {
+                    Connection connection = replica.dataSource.getConnection();
+                    replica.connections.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    log.warn("Реплика {} исключена: не удалось получить соединение", replica.name, e);
+                    replica.healthy = false;
+                }
+            }
+            fallbacks.increment();
+        }
+        primaryConnections.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Учетные данные задаются в настройках основной БД и реплик");
+    }
+
+    /**
+     * Проверка реплик: доступность и отставание. Первая проверка — при создании источника в ReplicaRoutingConfig
+     */
+    @Scheduled(fixedDelayString = "${app.datasource.replicas.check-interval:PT5S}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(lagQuery)) {
+                boolean found = rs.next();
+                long lag = found ? rs.getLong(1) : 0;
+                if (found && rs.wasNull()) {
+                    if (!replica.healthy || replica.lagMillis != Long.MAX_VALUE) {
+                        log.warn("Реплика {} не используется: отставание неизвестно (нет потоковой репликации)",
+                                replica.name);
+                    }
+                    lag = Long.MAX_VALUE;
+                } else if (!replica.healthy || replica.lagMillis == Long.MAX_VALUE) {
+                    log.info("Реплика {} доступна, отставание {} мс", replica.name, lag);
+                }
+                replica.lagMillis = lag;
+                replica.healthy = true;
+            } catch (SQLException e) {
+                if (replica.healthy) {
+                    log.warn("Реплика {} исключена: проверка не удалась", replica.name, e);
+                }
+                replica.healthy = false;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Replica replica : replicas) {
+            closeQuietly(replica.dataSource);
+        }
+        closeQuietly(primary);
+    }
+
+    // Helper methods
+
+    private static Counter connectionCounter(String name, MeterRegistry meterRegistry) {
+        return Counter.builder("bankcards.datasource.connections")
+                .description("Выданные соединения по источникам")
+                .tag("datasource", name)
+                .register(meterRegistry);
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        if (dataSource instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("Не удалось закрыть пул соединений", e);
+            }
+        }
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final Counter connections;
+
+        // До первой успешной проверки реплика не используется
+        private volatile boolean healthy;
+        private volatile long lagMillis = Long.MAX_VALUE;
+
+        private Replica(String name, DataSource dataSource, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.connections = connectionCounter(name, meterRegistry);
+            Gauge.builder("bankcards.datasource.replica.healthy", this, replica -> replica.healthy ? 1 : 0)
+                    .description("1 — реплика доступна, 0 — исключена")
+                    .tag("datasource", name)
+                    .register(meterRegistry);
+            Gauge.builder("bankcards.datasource.replica.lag", this,
+                            replica -> replica.lagMillis == Long.MAX_VALUE ? Double.NaN : replica.lagMillis)
+                    .description("Отставание реплики при последней проверке, мс")
+                    .tag("datasource", name)
+                    .register(meterRegistry);
+        }
+
+        private boolean isUsable(long maxStalenessMillis) {
+            return healthy && lagMillis <= maxStalenessMillis;
+        }
+    }
+}
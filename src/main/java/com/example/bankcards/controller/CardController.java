@@ -2,15 +2,23 @@ package com.example.bankcards.controller;
 
 import com.example.bankcards.dto.response.CardBalanceResponse;
 import com.example.bankcards.dto.response.CardResponse;
+import com.example.bankcards.dto.response.CardStatementResponse;
+import com.example.bankcards.dto.response.CardTransactionResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
+import com.example.bankcards.dto.response.StatementRebuildResponse;
 import com.example.bankcards.dto.response.SuccessResponse;
 import com.example.bankcards.service.AuthService;
 import com.example.bankcards.service.CardService;
+import com.example.bankcards.service.PageTotal;
+import com.example.bankcards.service.StatementRollupService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -19,7 +27,11 @@ import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 
 @RestController
 @RequestMapping("/api/v1/cards")
@@ -31,6 +43,7 @@ import java.math.BigDecimal;
 public class CardController {
 
     private final CardService cardService;
+    private final StatementRollupService statementRollupService;
     private final AuthService authService;
 
     // ==================== ADMIN endpoints ====================
@@ -75,12 +88,34 @@ public class CardController {
 
     @GetMapping("/admin/all")
     @PreAuthorize("hasRole('ADMIN')")
-    @Operation(summary = "Получить все карты (ADMIN)")
+    @Operation(
+            summary = "Получить все карты (ADMIN)",
+            description = "withTotal=false — без общего числа карт (только hasNext), "
+                    + "approximateTotal=true — оценка общего числа по статистике PostgreSQL вместо count(*)"
+    )
     public ResponseEntity<PageResponse<CardResponse>> getAllCards(
             @RequestParam(defaultValue = "0") @Min(0) int page,
-            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(defaultValue = "true") boolean withTotal,
+            @RequestParam(defaultValue = "false") boolean approximateTotal) {
 
-        return ResponseEntity.ok(cardService.getAllCards(page, size));
+        return ResponseEntity.ok(cardService.getAllCards(page, size, PageTotal.of(withTotal, approximateTotal)));
+    }
+
+    @GetMapping("/admin/search")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            summary = "Поиск среди всех карт по последним цифрам (ADMIN)",
+            description = "lastFour — от 1 до 4 цифр, совпадение с начала последних четырех цифр (4 цифры — точное). "
+                    + "withTotal=false — без общего числа карт (только hasNext)"
+    )
+    public ResponseEntity<PageResponse<CardResponse>> searchAllCards(
+            @RequestParam @Pattern(regexp = "\\d{1,4}") String lastFour,
+            @RequestParam(defaultValue = "0") @Min(0) int page,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(defaultValue = "true") boolean withTotal) {
+
+        return ResponseEntity.ok(cardService.searchAllCards(lastFour, page, size, PageTotal.of(withTotal, false)));
     }
 
     @PostMapping("/admin/{cardId}/top-up")
@@ -94,29 +129,103 @@ public class CardController {
         return ResponseEntity.ok(SuccessResponse.of("Баланс пополнен", null));
     }
 
+    @PostMapping("/admin/{cardId}/balance-shards")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            summary = "Настроить шардированный баланс карты (ADMIN)",
+            description = "Зачисления распределяются по N частям баланса, 0 — отключить"
+    )
+    public ResponseEntity<SuccessResponse<CardResponse>> configureBalanceShards(
+            @PathVariable Long cardId,
+            @RequestParam @Min(0) @Max(64) int shards) {
+
+        CardResponse response = cardService.configureBalanceShards(cardId, shards);
+        return ResponseEntity.ok(SuccessResponse.of("Шардирование баланса настроено", response));
+    }
+
+    @PostMapping("/admin/statements/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            summary = "Пересобрать месячные итоги карт из истории (ADMIN)",
+            description = "Диапазоны id карт пересобираются параллельно в фоне, прогресс — по id запуска"
+    )
+    public ResponseEntity<SuccessResponse<StatementRebuildResponse>> rebuildStatements() {
+        StatementRebuildResponse response = statementRollupService.startRebuild();
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/cards/admin/statements/rebuild/" + response.getId()))
+                .body(SuccessResponse.of("Пересборка месячных итогов запущена", response));
+    }
+
+    @GetMapping("/admin/statements/rebuild/{runId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Прогресс и итог пересборки месячных итогов (ADMIN)")
+    public ResponseEntity<StatementRebuildResponse> getStatementRebuild(@PathVariable Long runId) {
+        return ResponseEntity.ok(statementRollupService.getRun(runId));
+    }
+
     // ==================== USER endpoints ====================
 
     @GetMapping("/my")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Получить мои карты")
+    @Operation(summary = "Получить мои карты", description = "withTotal=false — без общего числа карт (только hasNext)")
     public ResponseEntity<PageResponse<CardResponse>> getMyCards(
             Authentication authentication,
             @RequestParam(defaultValue = "0") @Min(0) int page,
-            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(defaultValue = "true") boolean withTotal) {
 
         Long userId = authService.getUserIdFromAuthentication();
-        return ResponseEntity.ok(cardService.getUserCards(userId, page, size));
+        return ResponseEntity.ok(cardService.getUserCards(userId, page, size, PageTotal.of(withTotal, false)));
     }
 
     @GetMapping("/my/{cardId}/balance")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Получить баланс карты")
+    @Operation(
+            summary = "Получить баланс карты",
+            description = "С параметром at (ISO-8601, UTC) возвращает баланс на указанный момент"
+    )
     public ResponseEntity<CardBalanceResponse> getCardBalance(
             Authentication authentication,
-            @PathVariable Long cardId) {
+            @PathVariable Long cardId,
+            @RequestParam(required = false) Instant at) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        return ResponseEntity.ok(at == null
+                ? cardService.getCardBalance(userId, cardId)
+                : cardService.getCardBalanceAt(userId, cardId, at));
+    }
+
+    @GetMapping("/my/{cardId}/statements")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "Месячная выписка карты",
+            description = "Итоги зачислений и списаний за месяц month (yyyy-MM, UTC), по умолчанию текущий"
+    )
+    public ResponseEntity<CardStatementResponse> getCardStatement(
+            Authentication authentication,
+            @PathVariable Long cardId,
+            @RequestParam(required = false) YearMonth month) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        return ResponseEntity.ok(cardService.getCardStatement(userId, cardId,
+                month == null ? YearMonth.now(ZoneOffset.UTC) : month));
+    }
+
+    @GetMapping("/my/{cardId}/transactions")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "История операций карты",
+            description = "Страницы по курсору: nextCursor из ответа передается в cursor следующего запроса"
+    )
+    public ResponseEntity<CursorPageResponse<CardTransactionResponse>> getCardTransactions(
+            Authentication authentication,
+            @PathVariable Long cardId,
+            @RequestParam(required = false) @Size(max = 200) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
 
         Long userId = authService.getUserIdFromAuthentication();
-        return ResponseEntity.ok(cardService.getCardBalance(userId, cardId));
+        return ResponseEntity.ok(cardService.getCardTransactions(userId, cardId, cursor, size));
     }
 
     @PostMapping("/my/{cardId}/block")
@@ -134,15 +243,21 @@ public class CardController {
 
     @GetMapping("/my/search")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Поиск моих карт по последним 4 цифрам")
+    @Operation(
+            summary = "Поиск моих карт по последним 4 цифрам",
+            description = "lastFour — от 1 до 4 цифр, совпадение с начала последних четырех цифр (4 цифры — точное), "
+                    + "без lastFour — все карты. withTotal=false — без общего числа карт (только hasNext)"
+    )
     public ResponseEntity<PageResponse<CardResponse>> searchMyCards(
             Authentication authentication,
-            @RequestParam(required = false) String lastFour,
+            @RequestParam(required = false) @Pattern(regexp = "\\d{0,4}") String lastFour,
             @RequestParam(defaultValue = "0") @Min(0) int page,
-            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(defaultValue = "true") boolean withTotal) {
 
         Long userId = authService.getUserIdFromAuthentication();
-        return ResponseEntity.ok(cardService.searchUserCards(userId, lastFour, page, size));
+        return ResponseEntity.ok(cardService.searchUserCards(userId, lastFour, page, size,
+                PageTotal.of(withTotal, false)));
     }
 
 
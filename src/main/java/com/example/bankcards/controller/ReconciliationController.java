@@ -0,0 +1,59 @@
+package com.example.bankcards.controller;
+
+import com.example.bankcards.dto.response.PageResponse;
+import com.example.bankcards.dto.response.ReconciliationMismatchResponse;
+import com.example.bankcards.dto.response.ReconciliationRunResponse;
+import com.example.bankcards.dto.response.SuccessResponse;
+import com.example.bankcards.service.ReconciliationService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+
+@RestController
+@RequestMapping("/api/v1/admin/reconciliation")
+@RequiredArgsConstructor
+@Validated
+@Tag(name = "Reconciliation (Admin)", description = "Сверка балансов карт с историей операций")
+@SecurityRequirement(name = "Bearer Authentication")
+public class ReconciliationController {
+
+    private final ReconciliationService reconciliationService;
+
+    @PostMapping("/runs")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Запустить сверку балансов")
+    public ResponseEntity<SuccessResponse<ReconciliationRunResponse>> startRun() {
+        ReconciliationRunResponse response = reconciliationService.startRun();
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/admin/reconciliation/runs/" + response.getId()))
+                .body(SuccessResponse.of("Сверка запущена", response));
+    }
+
+    @GetMapping("/runs/{runId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Прогресс и итог сверки")
+    public ResponseEntity<ReconciliationRunResponse> getRun(@PathVariable Long runId) {
+        return ResponseEntity.ok(reconciliationService.getRun(runId));
+    }
+
+    @GetMapping("/runs/{runId}/mismatches")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Расхождения, найденные сверкой")
+    public ResponseEntity<PageResponse<ReconciliationMismatchResponse>> getMismatches(
+            @PathVariable Long runId,
+            @RequestParam(defaultValue = "0") @Min(0) int page,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size) {
+
+        return ResponseEntity.ok(reconciliationService.getMismatches(runId, page, size));
+    }
+}
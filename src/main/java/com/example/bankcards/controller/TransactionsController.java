@@ -1,11 +1,24 @@
 package com.example.bankcards.controller;
+import com.example.bankcards.repository.TransactionSearchFilter;
+import com.example.bankcards.service.AsyncTransferService;
 import com.example.bankcards.service.AuthService;
+import com.example.bankcards.service.ExportFormat;
+import com.example.bankcards.service.IdempotencyService;
+import com.example.bankcards.service.PageTotal;
+import com.example.bankcards.service.TransactionExportService;
 import com.example.bankcards.service.TransactionsService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import com.example.bankcards.dto.requests.BatchTransferRequest;
 import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.AsyncTransferResponse;
+import com.example.bankcards.dto.response.BatchTransferResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
 import com.example.bankcards.dto.response.SuccessResponse;
 import com.example.bankcards.dto.response.TransactionResponse;
@@ -13,11 +26,20 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Instant;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/transactions")
@@ -29,35 +51,190 @@ public class TransactionsController {
 
     private final TransactionsService transactionsService;
     private final AuthService authService;
+    private final IdempotencyService idempotencyService;
+    private final AsyncTransferService asyncTransferService;
+    private final TransactionExportService transactionExportService;
 
     @PostMapping("/transfer")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Перевод между своими картами")
+    @Operation(
+            summary = "Перевод между своими картами",
+            description = "С заголовком Idempotency-Key повтор запроса возвращает результат первого выполнения"
+    )
     public ResponseEntity<SuccessResponse<TransactionResponse>> transferBetweenOwnCards(
             Authentication authentication,
+            @RequestHeader(value = "Idempotency-Key", required = false) @Size(min = 1, max = 100) String idempotencyKey,
             @Valid @RequestBody TransferRequest request) {
 
         Long userId = authService.getUserIdFromAuthentication();
-        TransactionResponse response = transactionsService.transferBetweenOwnCards(userId, request);
+        TransactionResponse response = idempotencyKey == null
+                ? transactionsService.transferBetweenOwnCards(userId, request)
+                : idempotencyService.executeTransfer(userId, idempotencyKey, request,
+                        onRecorded -> transactionsService.transferBetweenOwnCards(userId, request, onRecorded));
 
         return ResponseEntity.ok(
                 SuccessResponse.of("Перевод успешно выполнен", response)
         );
     }
 
+    @PostMapping("/transfer/batch")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(summary = "Пакет переводов между своими картами в одной транзакции")
+    public ResponseEntity<SuccessResponse<BatchTransferResponse>> transferBatch(
+            Authentication authentication,
+            @Valid @RequestBody BatchTransferRequest request) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        BatchTransferResponse response = transactionsService.transferBatch(userId, request);
+
+        return ResponseEntity.ok(
+                SuccessResponse.of("Пакет переводов обработан", response)
+        );
+    }
+
+    @PostMapping("/transfer/async")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "Асинхронный перевод между своими картами",
+            description = "Запрос ставится в очередь и сразу подтверждается (202), статус — GET /transfer/{id}"
+    )
+    public ResponseEntity<SuccessResponse<AsyncTransferResponse>> submitTransfer(
+            Authentication authentication,
+            @Valid @RequestBody TransferRequest request) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        AsyncTransferResponse response = asyncTransferService.submit(userId, request);
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/transactions/transfer/" + response.getId()))
+                .body(SuccessResponse.of("Перевод принят в обработку", response));
+    }
+
+    @GetMapping("/transfer/{transferId}")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(summary = "Статус асинхронного перевода")
+    public ResponseEntity<AsyncTransferResponse> getTransferStatus(
+            Authentication authentication,
+            @PathVariable UUID transferId) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        AsyncTransferResponse response = asyncTransferService.getStatus(userId, transferId);
+
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/my")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Получить историю моих транзакций")
+    @Operation(
+            summary = "Получить историю моих транзакций",
+            description = "Страница по номеру. from/to (ISO-8601, UTC) ограничивают период [from, to), "
+                    + "withTotal=false — без общего числа транзакций (только hasNext). "
+                    + "Для глубокого чтения истории — /my/cursor"
+    )
     public ResponseEntity<PageResponse<TransactionResponse>> getMyTransactions(
             Authentication authentication,
             @RequestParam(defaultValue = "0") @Min(0) int page,
-            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "true") boolean withTotal) {
 
         Long userId = authService.getUserIdFromAuthentication();
-        PageResponse<TransactionResponse> response = transactionsService.getMyTransactions(userId, page, size);
+        PageResponse<TransactionResponse> response = transactionsService.getMyTransactions(userId, page, size, from, to,
+                PageTotal.of(withTotal, false));
 
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/my/cursor")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "Получить историю моих транзакций по курсору",
+            description = "Без cursor (или с пустым) — первая страница, далее nextCursor из ответа. "
+                    + "Общего числа транзакций нет, глубокие страницы не дороже первой. "
+                    + "from/to (ISO-8601, UTC) ограничивают период [from, to)"
+    )
+    public ResponseEntity<CursorPageResponse<TransactionResponse>> getMyTransactionsByCursor(
+            Authentication authentication,
+            @RequestParam(required = false) @Size(max = 200) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+
+        return ResponseEntity.ok(transactionsService.getMyTransactionsByCursor(userId, cursor, size, from, to));
+    }
+
+    @GetMapping("/my/search")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "Поиск в истории моих транзакций",
+            description = "Фильтры по сумме [minAmount, maxAmount], периоду [from, to) и последним четырем цифрам "
+                    + "карты контрагента, все необязательные. Результат по курсору, от новых к старым. "
+                    + "Архивные транзакции (старше hot-window) в поиск не попадают"
+    )
+    public ResponseEntity<CursorPageResponse<TransactionResponse>> searchMyTransactions(
+            Authentication authentication,
+            @RequestParam(required = false) @DecimalMin("0.00") BigDecimal minAmount,
+            @RequestParam(required = false) @DecimalMin("0.00") BigDecimal maxAmount,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(required = false) @Pattern(regexp = "\\d{4}") String counterpartLastFour,
+            @RequestParam(required = false) @Size(max = 200) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        TransactionSearchFilter filter = new TransactionSearchFilter(minAmount, maxAmount, from, to, counterpartLastFour);
+
+        return ResponseEntity.ok(transactionsService.searchTransactions(userId, filter, cursor, size));
+    }
+
+    @GetMapping("/admin/search")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+            summary = "Поиск в истории транзакций пользователя (ADMIN)",
+            description = "Те же фильтры, что у /my/search, для пользователя userId — для службы поддержки"
+    )
+    public ResponseEntity<CursorPageResponse<TransactionResponse>> searchUserTransactions(
+            @RequestParam @Min(1) Long userId,
+            @RequestParam(required = false) @DecimalMin("0.00") BigDecimal minAmount,
+            @RequestParam(required = false) @DecimalMin("0.00") BigDecimal maxAmount,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(required = false) @Pattern(regexp = "\\d{4}") String counterpartLastFour,
+            @RequestParam(required = false) @Size(max = 200) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size) {
+
+        TransactionSearchFilter filter = new TransactionSearchFilter(minAmount, maxAmount, from, to, counterpartLastFour);
+
+        return ResponseEntity.ok(transactionsService.searchTransactions(userId, filter, cursor, size));
+    }
+
+    @GetMapping("/my/export")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(
+            summary = "Выгрузить историю моих транзакций",
+            description = "Вся история за период [from, to) потоком в формате NDJSON или CSV, от старых к новым. "
+                    + "Без to выгружается история на момент запроса"
+    )
+    public ResponseEntity<StreamingResponseBody> exportMyTransactions(
+            Authentication authentication,
+            @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to) {
+
+        Long userId = authService.getUserIdFromAuthentication();
+        StreamingResponseBody body = transactionExportService.exportMyTransactions(userId, format, from, to);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("transactions." + format.getExtension())
+                        .build()
+                        .toString())
+                .body(body);
+    }
+
 
 }
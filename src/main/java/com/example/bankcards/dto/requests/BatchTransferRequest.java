@@ -0,0 +1,19 @@
+package com.example.bankcards.dto.requests;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchTransferRequest {
+
+    @NotEmpty(message = "Список переводов не может быть пустым")
+    @Size(max = 100, message = "Пакет не может содержать больше 100 переводов")
+    private List<@Valid TransferRequest> transfers;
+}
@@ -0,0 +1,49 @@
+package com.example.bankcards.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AsyncTransferResponse {
+
+    /**
+     * Идентификатор асинхронного перевода
+     */
+    private UUID id;
+
+    /**
+     * PENDING, COMPLETED или FAILED
+     */
+    private String status;
+
+    private Long fromCardId;
+
+    private Long toCardId;
+
+    private BigDecimal amount;
+
+    /**
+     * Выполненная транзакция (для COMPLETED)
+     */
+    private TransactionResponse transaction;
+
+    /**
+     * Причина отказа (для FAILED)
+     */
+    private String error;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant createdAt;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant processedAt;
+}
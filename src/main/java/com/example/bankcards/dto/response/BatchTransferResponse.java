@@ -0,0 +1,45 @@
+package com.example.bankcards.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchTransferResponse {
+
+    /**
+     * Количество переводов в пакете
+     */
+    private int total;
+
+    /**
+     * Количество выполненных переводов
+     */
+    private int succeeded;
+
+    /**
+     * Количество отклоненных переводов
+     */
+    private int failed;
+
+    /**
+     * Результаты в порядке переводов в запросе
+     */
+    private List<BatchTransferItemResult> items;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class BatchTransferItemResult {
+        private int index;
+        private String status;
+        private TransactionResponse transaction;
+        private String error;
+    }
+}
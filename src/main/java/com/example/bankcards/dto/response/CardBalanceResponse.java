@@ -1,8 +1,11 @@
 package com.example.bankcards.dto.response;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 
 @Data
 @NoArgsConstructor
@@ -14,4 +17,11 @@ public class CardBalanceResponse {
     private String maskedCardNumber;
     private BigDecimal balance;
     private String currency;
+
+    /**
+     * Момент, на который рассчитан баланс (только для запроса с параметром at)
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant asOf;
 }
\ No newline at end of file
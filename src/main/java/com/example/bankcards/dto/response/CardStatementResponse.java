@@ -0,0 +1,37 @@
+package com.example.bankcards.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CardStatementResponse {
+
+    private Long cardId;
+    private String maskedCardNumber;
+
+    /**
+     * Календарный месяц выписки (UTC)
+     */
+    @JsonFormat(pattern = "yyyy-MM")
+    private YearMonth month;
+
+    /**
+     * Зачисления: входящие переводы и пополнения
+     */
+    private BigDecimal incomingAmount;
+    private long incomingCount;
+
+    /**
+     * Списания: исходящие переводы
+     */
+    private BigDecimal outgoingAmount;
+    private long outgoingCount;
+
+    private String currency;
+}
@@ -0,0 +1,37 @@
+package com.example.bankcards.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Операция в истории одной карты. Заполняется прямо из запроса (JPQL constructor expression),
+ * без загрузки сущностей Transactions и Card
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CardTransactionResponse {
+
+    private UUID id;
+
+    private BigDecimal amount;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant createdAt;
+
+    /**
+     * INCOMING — зачисление на карту, OUTGOING — списание с карты
+     */
+    private String direction;
+
+    /**
+     * Вторая карта перевода
+     */
+    private Long counterpartCardId;
+    private String counterpartLastFour;
+}
@@ -0,0 +1,24 @@
+package com.example.bankcards.dto.response;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Страница с курсором вместо номера: без подсчета общего числа элементов
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CursorPageResponse<T> {
+
+    private List<T> content;
+    private int size;
+
+    /**
+     * Курсор следующей страницы (null — страниц больше нет)
+     */
+    private String nextCursor;
+    private boolean hasNext;
+}
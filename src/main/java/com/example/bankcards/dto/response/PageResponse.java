@@ -1,4 +1,5 @@
 package com.example.bankcards.dto.response;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
 import java.util.List;
@@ -12,9 +13,24 @@ public class PageResponse<T> {
     private List<T> content;
     private int pageNumber;
     private int pageSize;
-    private long totalElements;
-    private int totalPages;
+
+    /**
+     * Общее число элементов и страниц; не заполняются при withTotal=false
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long totalElements;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer totalPages;
+
+    /**
+     * true — totalElements взят из статистики БД и приблизителен
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean totalEstimated;
+
     private boolean first;
     private boolean last;
+    private boolean hasNext;
     private boolean empty;
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.example.bankcards.dto.response;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReconciliationMismatchResponse {
+
+    private Long cardId;
+
+    private BigDecimal actualBalance;
+
+    private BigDecimal expectedBalance;
+
+    /**
+     * actualBalance - expectedBalance
+     */
+    private BigDecimal difference;
+}
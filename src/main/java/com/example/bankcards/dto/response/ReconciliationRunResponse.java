@@ -0,0 +1,41 @@
+package com.example.bankcards.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReconciliationRunResponse {
+
+    private Long id;
+
+    /**
+     * RUNNING, COMPLETED или FAILED
+     */
+    private String status;
+
+    /**
+     * Число диапазонов id карт и сколько из них уже сверено
+     */
+    private int totalRanges;
+
+    private int completedRanges;
+
+    private long cardsChecked;
+
+    private long mismatches;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant startedAt;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", timezone = "UTC")
+    private Instant finishedAt;
+
+    private String error;
+}
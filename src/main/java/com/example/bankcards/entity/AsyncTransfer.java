@@ -0,0 +1,72 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Перевод, принятый на асинхронное выполнение (очередь transfer_requests)
+ */
+@Entity
+@Table(name = "transfer_requests")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AsyncTransfer {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "from_card_id", nullable = false)
+    private Long fromCardId;
+
+    @Column(name = "to_card_id", nullable = false)
+    private Long toCardId;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private AsyncTransferStatus status;
+
+    /**
+     * Запись в transactions (заполняется после выполнения)
+     */
+    @Column(name = "transaction_id")
+    private UUID transactionId;
+
+    /**
+     * Причина отказа (заполняется для FAILED)
+     */
+    @Column(length = 500)
+    private String error;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "processed_at")
+    private Instant processedAt;
+
+    /**
+     * Неудачные попытки выполнить перевод отдельной транзакцией
+     */
+    @Column(nullable = false)
+    private int attempts;
+
+    /**
+     * Защита от повторной обработки на БД без SKIP LOCKED: второй обработчик не сможет зафиксировать результат
+     */
+    @Version
+    @Column(nullable = false)
+    private Long version;
+}
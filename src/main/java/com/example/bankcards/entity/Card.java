@@ -56,7 +56,20 @@ public class Card {
     /**
      * Баланс
      */
-    @Column(nullable = false)
+    @Column(nullable = false, precision = 19, scale = 2)
     private BigDecimal balance;
 
+    /**
+     * Количество частей шардированного баланса (0 — баланс хранится только в этой строке)
+     */
+    @Column(name = "balance_shards", nullable = false)
+    private int balanceShards;
+
+    /**
+     * Версия строки для оптимистической блокировки
+     */
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
 }
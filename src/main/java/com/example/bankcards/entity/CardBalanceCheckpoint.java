@@ -0,0 +1,39 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Баланс карты на начало суток (UTC): учтены все пополнения и переводы раньше checkpointAt
+ */
+@Entity
+@Table(
+        name = "card_balance_checkpoints",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_card_balance_checkpoints_card_at",
+                columnNames = {"card_id", "checkpoint_at"}
+        )
+)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CardBalanceCheckpoint {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "card_id", nullable = false)
+    private Long cardId;
+
+    @Column(name = "checkpoint_at", nullable = false)
+    private Instant checkpointAt;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal balance;
+}
@@ -0,0 +1,40 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+
+/**
+ * Часть баланса карты с шардированным балансом.
+ * Зачисления на такую карту распределяются по строкам этой таблицы,
+ * полный баланс = cards.balance + сумма частей
+ */
+@Entity
+@Table(
+        name = "card_balance_shards",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_card_balance_shards_card_shard",
+                columnNames = {"card_id", "shard_no"}
+        )
+)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CardBalanceShard {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "card_id", nullable = false)
+    private Long cardId;
+
+    @Column(name = "shard_no", nullable = false)
+    private int shardNo;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal balance;
+}
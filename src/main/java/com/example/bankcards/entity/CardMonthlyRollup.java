@@ -0,0 +1,53 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+
+/**
+ * Итоги операций карты за календарный месяц (UTC): зачисления (входящие переводы и пополнения)
+ * и списания. Обновляется в транзакции каждой операции, пересобирается из истории StatementRollupService.
+ * Месяц карты с шардированным балансом хранится несколькими строками (shardNo), итог — их сумма
+ */
+@Entity
+@Table(
+        name = "card_monthly_rollups",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_card_monthly_rollups_card_month_shard",
+                columnNames = {"card_id", "statement_month", "shard_no"}
+        )
+)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CardMonthlyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "card_id", nullable = false)
+    private Long cardId;
+
+    @Column(name = "statement_month", nullable = false, length = 7)
+    private YearMonth statementMonth;
+
+    @Column(name = "shard_no", nullable = false)
+    private int shardNo;
+
+    @Column(name = "incoming_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal incomingAmount;
+
+    @Column(name = "incoming_count", nullable = false)
+    private long incomingCount;
+
+    @Column(name = "outgoing_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal outgoingAmount;
+
+    @Column(name = "outgoing_count", nullable = false)
+    private long outgoingCount;
+}
@@ -0,0 +1,41 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+
+/**
+ * Карта, баланс которой не совпал с суммой пополнений и переводов
+ */
+@Entity
+@Table(name = "reconciliation_mismatches")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReconciliationMismatch {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_id", nullable = false)
+    private Long runId;
+
+    @Column(name = "card_id", nullable = false)
+    private Long cardId;
+
+    /**
+     * Баланс карты (строка cards плюс части баланса)
+     */
+    @Column(name = "actual_balance", nullable = false, precision = 19, scale = 2)
+    private BigDecimal actualBalance;
+
+    /**
+     * Баланс по истории: пополнения + входящие переводы - исходящие переводы
+     */
+    @Column(name = "expected_balance", nullable = false, precision = 19, scale = 2)
+    private BigDecimal expectedBalance;
+}
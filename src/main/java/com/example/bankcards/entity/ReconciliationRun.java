@@ -0,0 +1,48 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Запуск сверки балансов карт с историей операций
+ */
+@Entity
+@Table(name = "reconciliation_runs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReconciliationRun {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private ReconciliationRunStatus status;
+
+    @Column(name = "total_ranges", nullable = false)
+    private int totalRanges;
+
+    @Column(name = "completed_ranges", nullable = false)
+    private int completedRanges;
+
+    @Column(name = "cards_checked", nullable = false)
+    private long cardsChecked;
+
+    @Column(nullable = false)
+    private long mismatches;
+
+    @Column(name = "started_at", nullable = false)
+    private Instant startedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    @Column(length = 500)
+    private String error;
+}
@@ -0,0 +1,45 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Запуск пересборки месячных итогов карт из истории
+ */
+@Entity
+@Table(name = "statement_rebuild_runs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StatementRebuildRun {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private StatementRebuildRunStatus status;
+
+    @Column(name = "total_ranges", nullable = false)
+    private int totalRanges;
+
+    @Column(name = "completed_ranges", nullable = false)
+    private int completedRanges;
+
+    @Column(nullable = false)
+    private long rollups;
+
+    @Column(name = "started_at", nullable = false)
+    private Instant startedAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    @Column(length = 500)
+    private String error;
+}
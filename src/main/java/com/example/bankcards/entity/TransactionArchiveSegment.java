@@ -0,0 +1,50 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Сегмент архива transactions: файл на диске со строками, перенесенными из БД.
+ * Запись добавляется в одной транзакции с удалением этих строк из transactions,
+ * поэтому в любом снимке БД строка находится либо в таблице, либо в зарегистрированном сегменте.
+ * Границы created_at и id карт позволяют не открывать файлы, которые не пересекаются с запросом
+ */
+@Entity
+@Table(name = "transaction_archive_segments")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TransactionArchiveSegment {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "file_name", nullable = false, unique = true)
+    private String fileName;
+
+    @Column(name = "row_count", nullable = false)
+    private int rowCount;
+
+    @Column(name = "min_created_at", nullable = false)
+    private Instant minCreatedAt;
+
+    @Column(name = "max_created_at", nullable = false)
+    private Instant maxCreatedAt;
+
+    @Column(name = "min_card_id", nullable = false)
+    private long minCardId;
+
+    @Column(name = "max_card_id", nullable = false)
+    private long maxCardId;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "archived_at", nullable = false)
+    private Instant archivedAt;
+}
@@ -1,5 +1,6 @@
 package com.example.bankcards.entity;
 
+import com.example.bankcards.util.TimeOrderedUuid;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -16,8 +17,9 @@ import java.util.UUID;
     @Builder
     public class Transactions {
 
+        // UUID версии 7: новые строки попадают в конец индекса первичного ключа
         @Id
-        @GeneratedValue(strategy = GenerationType.UUID)
+        @TimeOrderedUuid
         private UUID id;
 
         @Column(nullable = false)
@@ -31,6 +33,14 @@ import java.util.UUID;
         @JoinColumn(name = "to_card_id", nullable = false)
         private Card toCard;
 
+        // Владельцы карт на момент записи (владелец карты не меняется): история фильтруется без join с cards.
+        // Пусто только у старых строк до окончания фонового заполнения
+        @Column(name = "from_owner_id")
+        private Long fromOwnerId;
+
+        @Column(name = "to_owner_id")
+        private Long toOwnerId;
+
         @Column(nullable = false)
         private Instant createdAt = Instant.now();
 
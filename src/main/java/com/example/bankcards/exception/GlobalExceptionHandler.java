@@ -3,6 +3,7 @@ package com.example.bankcards.exception;
 import com.example.bankcards.dto.response.ErrorResponse;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.ConstraintViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -60,7 +61,7 @@ public class GlobalExceptionHandler {
     }
 
     @ExceptionHandler({IllegalArgumentException.class, IllegalStateException.class,
-            CardNotActiveException.class, InsufficientFundsException.class})
+            CardNotActiveException.class, InsufficientFundsException.class, ConstraintViolationException.class})
     public ResponseEntity<ErrorResponse> handleBadRequest(
             RuntimeException ex,
             HttpServletRequest request
@@ -0,0 +1,41 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.AsyncTransfer;
+import com.example.bankcards.entity.AsyncTransferStatus;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface AsyncTransferRepository extends JpaRepository<AsyncTransfer, UUID> {
+
+    Optional<AsyncTransfer> findByIdAndUserId(UUID id, Long userId);
+
+    /**
+     * Забирает очередные переводы: FOR UPDATE SKIP LOCKED (lock.timeout = -2),
+     * строки, заблокированные другими обработчиками, пропускаются
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT t FROM AsyncTransfer t WHERE t.status = :status ORDER BY t.createdAt")
+    List<AsyncTransfer> findNextForProcessing(@Param("status") AsyncTransferStatus status, Pageable pageable);
+
+    /**
+     * Забирает один перевод для выполнения отдельной транзакцией, если он еще не обработан
+     * и не заблокирован другим обработчиком
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT t FROM AsyncTransfer t WHERE t.id = :id AND t.status = :status")
+    Optional<AsyncTransfer> findByIdForProcessing(@Param("id") UUID id, @Param("status") AsyncTransferStatus status);
+}
@@ -0,0 +1,19 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardBalanceCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Optional;
+
+@Repository
+public interface CardBalanceCheckpointRepository extends JpaRepository<CardBalanceCheckpoint, Long> {
+
+    Optional<CardBalanceCheckpoint> findFirstByCardIdAndCheckpointAtLessThanEqualOrderByCheckpointAtDesc(
+            Long cardId, Instant at);
+
+    @Query("SELECT MAX(c.checkpointAt) FROM CardBalanceCheckpoint c")
+    Optional<Instant> findLatestCheckpointAt();
+}
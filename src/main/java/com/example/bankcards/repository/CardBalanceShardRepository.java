@@ -0,0 +1,42 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardBalanceShard;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface CardBalanceShardRepository extends JpaRepository<CardBalanceShard, Long> {
+
+    /**
+     * Зачисление в одну часть баланса: блокируется только строка этой части, а не строка карты
+     */
+    @Modifying
+    @Query("UPDATE CardBalanceShard s SET s.balance = s.balance + :amount " +
+            "WHERE s.cardId = :cardId AND s.shardNo = :shardNo")
+    int credit(@Param("cardId") Long cardId, @Param("shardNo") int shardNo, @Param("amount") BigDecimal amount);
+
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM CardBalanceShard s WHERE s.cardId = :cardId")
+    BigDecimal sumBalanceByCardId(@Param("cardId") Long cardId);
+
+    /**
+     * Суммы частей баланса нескольких карт одним запросом: пары [cardId, сумма]
+     */
+    @Query("SELECT s.cardId, SUM(s.balance) FROM CardBalanceShard s WHERE s.cardId IN :cardIds GROUP BY s.cardId")
+    List<Object[]> sumBalanceByCardIds(@Param("cardIds") Collection<Long> cardIds);
+
+    /**
+     * Все части баланса карты с блокировкой, по возрастанию номера части
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM CardBalanceShard s WHERE s.cardId = :cardId ORDER BY s.shardNo")
+    List<CardBalanceShard> findAllByCardIdWithLock(@Param("cardId") Long cardId);
+}
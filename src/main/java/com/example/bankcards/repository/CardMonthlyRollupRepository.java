@@ -0,0 +1,17 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardMonthlyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.YearMonth;
+import java.util.List;
+
+@Repository
+public interface CardMonthlyRollupRepository extends JpaRepository<CardMonthlyRollup, Long> {
+
+    /**
+     * Все части итогов карты за месяц (у карты без шардированного баланса — не больше одной)
+     */
+    List<CardMonthlyRollup> findAllByCardIdAndStatementMonth(Long cardId, YearMonth statementMonth);
+}
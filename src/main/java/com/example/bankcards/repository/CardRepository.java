@@ -1,26 +1,51 @@
 package com.example.bankcards.repository;
 
 import com.example.bankcards.entity.Card;
-import com.example.bankcards.entity.User;
+import com.example.bankcards.entity.CardStatus;
 import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface CardRepository extends JpaRepository<Card, Long> {
 
+    /**
+     * Списки карт загружают владельца тем же запросом (CardMapper читает его имя), без запроса к users на каждую карту
+     */
+    @Override
+    @EntityGraph(attributePaths = "owner")
+    Page<Card> findAll(Pageable pageable);
+
+    @EntityGraph(attributePaths = "owner")
     Page<Card> findByOwnerId(Long ownerId, Pageable pageable);
 
+    /**
+     * Страницы без count(*): читается size + 1 строка, чтобы узнать о следующей странице
+     */
+    @EntityGraph(attributePaths = "owner")
+    Slice<Card> findSliceByOwnerId(Long ownerId, Pageable pageable);
+
+    @EntityGraph(attributePaths = "owner")
+    Slice<Card> findSliceBy(Pageable pageable);
+
     Optional<Card> findByIdAndOwnerId(Long id, Long ownerId);
 
+    @Query("SELECT c.id FROM Card c WHERE c.owner.id = :ownerId")
+    List<Long> findIdsByOwnerId(@Param("ownerId") Long ownerId);
+
     Optional<Card> findByCardNumberEncrypted(String encryptedNumber);
 
     boolean existsByCardNumberEncrypted(String encryptedNumber);
@@ -33,7 +58,49 @@ public interface CardRepository extends JpaRepository<Card, Long> {
     @Query("SELECT c FROM Card c WHERE c.id = :id")
     Optional<Card> findByIdWithLock(@Param("id") Long id);
 
-    Page<Card> findByOwnerAndLastFourContaining(User owner, String lastFour, Pageable pageable);
+    /**
+     * Получить несколько карт с пессимистической блокировкой одним запросом
+     * Строки блокируются в порядке возрастания id, поэтому встречные переводы
+     * A→B и B→A не могут взаимно заблокировать друг друга
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Card c WHERE c.id IN :ids ORDER BY c.id")
+    List<Card> findAllByIdInWithLock(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Блокировка карт перевода по возрастанию id, кроме карты получателя с шардированным балансом:
+     * зачисление на нее идет в часть баланса, и строка карты остается свободной
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Card c WHERE c.id IN :ids AND (c.id = :debitId OR c.balanceShards = 0) ORDER BY c.id")
+    List<Card> findAllForTransferWithLock(@Param("ids") Collection<Long> ids, @Param("debitId") Long debitId);
+
+    /**
+     * Поиск карт владельца по последним цифрам. pattern — «1234», «12%» или «%23%» (только цифры):
+     * при совпадении с начала условие читается по индексу (owner_id, last_four), см. миграцию 017
+     */
+    @EntityGraph(attributePaths = "owner")
+    @Query(value = "SELECT c FROM Card c WHERE c.owner.id = :ownerId AND c.lastFour LIKE :pattern",
+            countQuery = "SELECT count(c) FROM Card c WHERE c.owner.id = :ownerId AND c.lastFour LIKE :pattern")
+    Page<Card> findByOwnerIdAndLastFourLike(@Param("ownerId") Long ownerId, @Param("pattern") String pattern,
+                                            Pageable pageable);
+
+    @EntityGraph(attributePaths = "owner")
+    @Query("SELECT c FROM Card c WHERE c.owner.id = :ownerId AND c.lastFour LIKE :pattern")
+    Slice<Card> findSliceByOwnerIdAndLastFourLike(@Param("ownerId") Long ownerId, @Param("pattern") String pattern,
+                                                  Pageable pageable);
+
+    /**
+     * Поиск по последним цифрам среди всех карт (ADMIN), по индексу last_four
+     */
+    @EntityGraph(attributePaths = "owner")
+    @Query(value = "SELECT c FROM Card c WHERE c.lastFour LIKE :pattern",
+            countQuery = "SELECT count(c) FROM Card c WHERE c.lastFour LIKE :pattern")
+    Page<Card> findByLastFourLike(@Param("pattern") String pattern, Pageable pageable);
+
+    @EntityGraph(attributePaths = "owner")
+    @Query("SELECT c FROM Card c WHERE c.lastFour LIKE :pattern")
+    Slice<Card> findSliceByLastFourLike(@Param("pattern") String pattern, Pageable pageable);
     /**
      * Получить карту с блокировкой, проверяя владельца
      * Используется для транзакций между своими картами
@@ -42,5 +109,27 @@ public interface CardRepository extends JpaRepository<Card, Long> {
     @Query("SELECT c FROM Card c WHERE c.id = :id AND c.owner.id = :ownerId")
     Optional<Card> findByIdAndOwnerIdWithLock(@Param("id") Long id, @Param("ownerId") Long ownerId);
 
-    Page<Card> findByOwner(User owner, Pageable pageable);
+    /**
+     * Условное списание: изменяет строку, только если карта принадлежит владельцу,
+     * активна и на ней достаточно средств. 0 означает отказ
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance - :amount, c.version = c.version + 1 " +
+            "WHERE c.id = :id AND c.owner.id = :ownerId AND c.status = :status AND c.balance >= :amount")
+    int debitIfAllowed(@Param("id") Long id, @Param("ownerId") Long ownerId,
+                       @Param("status") CardStatus status, @Param("amount") BigDecimal amount);
+
+    /**
+     * Условное зачисление: изменяет строку, только если карта принадлежит владельцу, активна
+     * и не использует шардированный баланс
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance + :amount, c.version = c.version + 1 " +
+            "WHERE c.id = :id AND c.owner.id = :ownerId AND c.status = :status AND c.balanceShards = 0")
+    int creditIfAllowed(@Param("id") Long id, @Param("ownerId") Long ownerId,
+                        @Param("status") CardStatus status, @Param("amount") BigDecimal amount);
+
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance + :amount, c.version = c.version + 1 WHERE c.id = :id")
+    int creditBalance(@Param("id") Long id, @Param("amount") BigDecimal amount);
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardTopUp;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+@Repository
+public interface CardTopUpRepository extends JpaRepository<CardTopUp, Long> {
+
+    @Query("SELECT COALESCE(SUM(u.amount), 0) FROM CardTopUp u " +
+            "WHERE u.cardId = :cardId AND u.createdAt >= :from AND u.createdAt <= :to")
+    BigDecimal sumAmount(@Param("cardId") Long cardId, @Param("from") Instant from, @Param("to") Instant to);
+}
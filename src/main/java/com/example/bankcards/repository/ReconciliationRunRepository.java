@@ -0,0 +1,23 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.ReconciliationRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface ReconciliationRunRepository extends JpaRepository<ReconciliationRun, Long> {
+
+    /**
+     * Учитывает завершенный диапазон: счетчики растут атомарно, диапазоны завершаются параллельно
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE ReconciliationRun r SET r.completedRanges = r.completedRanges + 1, "
+            + "r.cardsChecked = r.cardsChecked + :cards, r.mismatches = r.mismatches + :mismatches "
+            + "WHERE r.id = :id")
+    int addRangeProgress(@Param("id") Long id, @Param("cards") long cards, @Param("mismatches") long mismatches);
+}
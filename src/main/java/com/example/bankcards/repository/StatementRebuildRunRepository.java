@@ -0,0 +1,22 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.StatementRebuildRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface StatementRebuildRunRepository extends JpaRepository<StatementRebuildRun, Long> {
+
+    /**
+     * Учитывает пересобранный диапазон: счетчики растут атомарно, диапазоны завершаются параллельно
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE StatementRebuildRun r SET r.completedRanges = r.completedRanges + 1, "
+            + "r.rollups = r.rollups + :rollups WHERE r.id = :id")
+    int addRangeProgress(@Param("id") Long id, @Param("rollups") long rollups);
+}
@@ -0,0 +1,19 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.TransactionArchiveSegment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface TransactionArchiveSegmentRepository extends JpaRepository<TransactionArchiveSegment, Long> {
+
+    // Сегменты пишутся по возрастанию (created_at, id), поэтому порядок id — это порядок строк
+    List<TransactionArchiveSegment> findAllByOrderByIdAsc();
+
+    @Query("SELECT MAX(s.id) FROM TransactionArchiveSegment s")
+    Optional<Long> findLatestId();
+}
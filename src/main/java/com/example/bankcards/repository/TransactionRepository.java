@@ -1,5 +1,6 @@
 package com.example.bankcards.repository;
 
+import com.example.bankcards.dto.response.CardTransactionResponse;
 import com.example.bankcards.entity.Transactions;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -7,16 +8,218 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
-public interface TransactionRepository extends JpaRepository<Transactions, UUID> {
+public interface TransactionRepository extends JpaRepository<Transactions, UUID>, TransactionSearchRepository {
 
-    @Query("SELECT t FROM Transactions t " +
-            "WHERE t.fromCard.owner.id = :userId OR t.toCard.owner.id = :userId")
-    Page<Transactions> findAllByUserId(@Param("userId") Long userId, Pageable pageable);
+    /**
+     * История пользователя как UNION ALL двух потоков по его картам: исходящие по индексу
+     * (from_card_id, created_at DESC) и входящие с чужих карт по индексу (to_card_id, created_at DESC).
+     * Каждый поток заранее ограничен :window строками, внешняя сортировка сливает два упорядоченных потока.
+     * Период [:from, :to) отсекает помесячные секции transactions, в которых нет нужных строк
+     */
+    String USER_HISTORY_SQL = """
+            SELECT h.* FROM (
+                (SELECT t.* FROM transactions t
+                 WHERE t.from_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.created_at >= :from AND t.created_at < :to
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :window)
+                UNION ALL
+                (SELECT t.* FROM transactions t
+                 WHERE t.to_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.from_card_id NOT IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.created_at >= :from AND t.created_at < :to
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :window)
+            ) h
+            ORDER BY h.created_at DESC, h.id DESC
+            """;
 
-    @Query("SELECT t FROM Transactions t " +
-            "WHERE t.fromCard.id = :cardId OR t.toCard.id = :cardId")
-    Page<Transactions> findAllByCardId(@Param("cardId") Long cardId, Pageable pageable);
+    String USER_HISTORY_COUNT_SQL = """
+            SELECT (SELECT COUNT(*) FROM transactions t
+                    WHERE t.from_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                      AND t.created_at >= :from AND t.created_at < :to)
+                 + (SELECT COUNT(*) FROM transactions t
+                    WHERE t.to_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                      AND t.from_card_id NOT IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                      AND t.created_at >= :from AND t.created_at < :to)
+            """;
+
+    /**
+     * То же для чтения по курсору: в каждом потоке поиск начинается с позиции (createdAt, id)
+     */
+    String USER_HISTORY_AFTER_SQL = """
+            SELECT h.* FROM (
+                (SELECT t.* FROM transactions t
+                 WHERE t.from_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.created_at >= :from AND t.created_at < :to
+                   AND (t.created_at < :createdAt OR (t.created_at = :createdAt AND t.id < :id))
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :limit)
+                UNION ALL
+                (SELECT t.* FROM transactions t
+                 WHERE t.to_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.from_card_id NOT IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)
+                   AND t.created_at >= :from AND t.created_at < :to
+                   AND (t.created_at < :createdAt OR (t.created_at = :createdAt AND t.id < :id))
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :limit)
+            ) h
+            ORDER BY h.created_at DESC, h.id DESC
+            LIMIT :limit
+            """;
+
+    /**
+     * История по колонкам владельцев, без подзапросов к cards: исходящие по индексу
+     * (from_owner_id, created_at DESC, id DESC), входящие с чужих карт — по (to_owner_id, created_at DESC, id DESC, from_owner_id).
+     * Используется после фонового заполнения владельцев (TransactionOwnerBackfill)
+     */
+    String OWNER_HISTORY_SQL = """
+            SELECT h.* FROM (
+                (SELECT t.* FROM transactions t
+                 WHERE t.from_owner_id = :userId
+                   AND t.created_at >= :from AND t.created_at < :to
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :window)
+                UNION ALL
+                (SELECT t.* FROM transactions t
+                 WHERE t.to_owner_id = :userId AND t.from_owner_id <> :userId
+                   AND t.created_at >= :from AND t.created_at < :to
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :window)
+            ) h
+            ORDER BY h.created_at DESC, h.id DESC
+            """;
+
+    String OWNER_HISTORY_COUNT_SQL = """
+            SELECT (SELECT COUNT(*) FROM transactions t
+                    WHERE t.from_owner_id = :userId
+                      AND t.created_at >= :from AND t.created_at < :to)
+                 + (SELECT COUNT(*) FROM transactions t
+                    WHERE t.to_owner_id = :userId AND t.from_owner_id <> :userId
+                      AND t.created_at >= :from AND t.created_at < :to)
+            """;
+
+    String OWNER_HISTORY_AFTER_SQL = """
+            SELECT h.* FROM (
+                (SELECT t.* FROM transactions t
+                 WHERE t.from_owner_id = :userId
+                   AND t.created_at >= :from AND t.created_at < :to
+                   AND (t.created_at < :createdAt OR (t.created_at = :createdAt AND t.id < :id))
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :limit)
+                UNION ALL
+                (SELECT t.* FROM transactions t
+                 WHERE t.to_owner_id = :userId AND t.from_owner_id <> :userId
+                   AND t.created_at >= :from AND t.created_at < :to
+                   AND (t.created_at < :createdAt OR (t.created_at = :createdAt AND t.id < :id))
+                 ORDER BY t.created_at DESC, t.id DESC
+                 LIMIT :limit)
+            ) h
+            ORDER BY h.created_at DESC, h.id DESC
+            LIMIT :limit
+            """;
+
+    /**
+     * Страница истории по номеру; window — число строк до конца запрошенной страницы ((page + 1) * size)
+     */
+    @Query(value = USER_HISTORY_SQL, countQuery = USER_HISTORY_COUNT_SQL, nativeQuery = true)
+    Page<Transactions> findAllByUserId(@Param("userId") Long userId,
+                                       @Param("from") Instant from,
+                                       @Param("to") Instant to,
+                                       @Param("window") long window,
+                                       Pageable pageable);
+
+    /**
+     * Первая страница истории для чтения по курсору (без count)
+     */
+    @Query(value = USER_HISTORY_SQL + " LIMIT :window", nativeQuery = true)
+    List<Transactions> findFirstPageByUserId(@Param("userId") Long userId,
+                                             @Param("from") Instant from,
+                                             @Param("to") Instant to,
+                                             @Param("window") int window);
+
+    /**
+     * Следующая страница: поиск по индексам с позиции курсора вместо пропуска OFFSET строк
+     */
+    @Query(value = USER_HISTORY_AFTER_SQL, nativeQuery = true)
+    List<Transactions> findPageByUserIdAfter(@Param("userId") Long userId,
+                                             @Param("from") Instant from,
+                                             @Param("to") Instant to,
+                                             @Param("createdAt") Instant createdAt,
+                                             @Param("id") UUID id,
+                                             @Param("limit") int limit);
+
+    @Query(value = OWNER_HISTORY_SQL, countQuery = OWNER_HISTORY_COUNT_SQL, nativeQuery = true)
+    Page<Transactions> findAllByOwnerId(@Param("userId") Long userId,
+                                        @Param("from") Instant from,
+                                        @Param("to") Instant to,
+                                        @Param("window") long window,
+                                        Pageable pageable);
+
+    @Query(value = OWNER_HISTORY_SQL + " LIMIT :window", nativeQuery = true)
+    List<Transactions> findFirstPageByOwnerId(@Param("userId") Long userId,
+                                              @Param("from") Instant from,
+                                              @Param("to") Instant to,
+                                              @Param("window") int window);
+
+    @Query(value = OWNER_HISTORY_AFTER_SQL, nativeQuery = true)
+    List<Transactions> findPageByOwnerIdAfter(@Param("userId") Long userId,
+                                              @Param("from") Instant from,
+                                              @Param("to") Instant to,
+                                              @Param("createdAt") Instant createdAt,
+                                              @Param("id") UUID id,
+                                              @Param("limit") int limit);
+
+    // История одной карты: списания и зачисления читаются отдельно, каждое — по своему индексу
+    // (from_card_id / to_card_id, created_at DESC), и сливаются в сервисе
+
+    @Query("SELECT new com.example.bankcards.dto.response.CardTransactionResponse(" +
+            "t.id, t.amount, t.createdAt, 'OUTGOING', c.id, c.lastFour) " +
+            "FROM Transactions t JOIN t.toCard c " +
+            "WHERE t.fromCard.id = :cardId " +
+            "ORDER BY t.createdAt DESC, t.id DESC")
+    List<CardTransactionResponse> findOutgoingByCardId(@Param("cardId") Long cardId, Pageable pageable);
+
+    @Query("SELECT new com.example.bankcards.dto.response.CardTransactionResponse(" +
+            "t.id, t.amount, t.createdAt, 'OUTGOING', c.id, c.lastFour) " +
+            "FROM Transactions t JOIN t.toCard c " +
+            "WHERE t.fromCard.id = :cardId " +
+            "AND (t.createdAt < :createdAt OR (t.createdAt = :createdAt AND t.id < :id)) " +
+            "ORDER BY t.createdAt DESC, t.id DESC")
+    List<CardTransactionResponse> findOutgoingByCardIdAfter(@Param("cardId") Long cardId,
+                                                            @Param("createdAt") Instant createdAt,
+                                                            @Param("id") UUID id,
+                                                            Pageable pageable);
+
+    @Query("SELECT new com.example.bankcards.dto.response.CardTransactionResponse(" +
+            "t.id, t.amount, t.createdAt, 'INCOMING', c.id, c.lastFour) " +
+            "FROM Transactions t JOIN t.fromCard c " +
+            "WHERE t.toCard.id = :cardId " +
+            "ORDER BY t.createdAt DESC, t.id DESC")
+    List<CardTransactionResponse> findIncomingByCardId(@Param("cardId") Long cardId, Pageable pageable);
+
+    @Query("SELECT new com.example.bankcards.dto.response.CardTransactionResponse(" +
+            "t.id, t.amount, t.createdAt, 'INCOMING', c.id, c.lastFour) " +
+            "FROM Transactions t JOIN t.fromCard c " +
+            "WHERE t.toCard.id = :cardId " +
+            "AND (t.createdAt < :createdAt OR (t.createdAt = :createdAt AND t.id < :id)) " +
+            "ORDER BY t.createdAt DESC, t.id DESC")
+    List<CardTransactionResponse> findIncomingByCardIdAfter(@Param("cardId") Long cardId,
+                                                            @Param("createdAt") Instant createdAt,
+                                                            @Param("id") UUID id,
+                                                            Pageable pageable);
+
+    @Query("SELECT COALESCE(SUM(t.amount), 0) FROM Transactions t " +
+            "WHERE t.toCard.id = :cardId AND t.createdAt >= :from AND t.createdAt <= :to")
+    BigDecimal sumIncoming(@Param("cardId") Long cardId, @Param("from") Instant from, @Param("to") Instant to);
+
+    @Query("SELECT COALESCE(SUM(t.amount), 0) FROM Transactions t " +
+            "WHERE t.fromCard.id = :cardId AND t.createdAt >= :from AND t.createdAt <= :to")
+    BigDecimal sumOutgoing(@Param("cardId") Long cardId, @Param("from") Instant from, @Param("to") Instant to);
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.example.bankcards.repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Условия поиска транзакций пользователя. null — условие не задано;
+ * период [from, to) задается всегда (TransactionsService подставляет границы по умолчанию)
+ */
+public record TransactionSearchFilter(BigDecimal minAmount,
+                                      BigDecimal maxAmount,
+                                      Instant from,
+                                      Instant to,
+                                      String counterpartLastFour) {
+}
@@ -0,0 +1,95 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.util.TransactionCursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Построение SQL поиска транзакций пользователя. Как и история, запрос — UNION ALL исходящих и входящих
+ * с чужих карт, каждая ветка упорядочена по (created_at DESC, id DESC) и ограничена limit строками.
+ * В SQL попадают только заданные условия, и каждое сравнивает колонку как есть, без функций и проверок
+ * «параметр IS NULL», поэтому планировщик выбирает индекс по владельцу и времени
+ * (idx_transactions_*_owner_created_at), по владельцу и сумме (idx_transactions_*_owner_amount)
+ * или по карте контрагента (idx_transactions_*_card_created_at)
+ */
+final class TransactionSearchQuery {
+
+    private final StringBuilder sql = new StringBuilder();
+    private final Map<String, Object> params = new HashMap<>();
+
+    private TransactionSearchQuery() {
+    }
+
+    /**
+     * byOwner — условия по колонкам владельцев (после TransactionOwnerBackfill), иначе по картам пользователя
+     */
+    static TransactionSearchQuery build(Long userId, boolean byOwner, TransactionSearchFilter filter,
+                                        TransactionCursor after, int limit) {
+        TransactionSearchQuery query = new TransactionSearchQuery();
+        query.params.put("userId", userId);
+        query.params.put("from", filter.from());
+        query.params.put("to", filter.to());
+        query.params.put("limit", limit);
+        if (filter.minAmount() != null) {
+            query.params.put("minAmount", filter.minAmount());
+        }
+        if (filter.maxAmount() != null) {
+            query.params.put("maxAmount", filter.maxAmount());
+        }
+        if (filter.counterpartLastFour() != null) {
+            query.params.put("counterpartLastFour", filter.counterpartLastFour());
+        }
+        if (after != null) {
+            query.params.put("createdAt", after.createdAt());
+            query.params.put("id", after.id());
+        }
+
+        String outgoing = byOwner
+                ? "t.from_owner_id = :userId"
+                : "t.from_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)";
+        String incoming = byOwner
+                ? "t.to_owner_id = :userId AND t.from_owner_id <> :userId"
+                : "t.to_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)"
+                + " AND t.from_card_id NOT IN (SELECT c.id FROM cards c WHERE c.owner_id = :userId)";
+
+        query.sql.append("SELECT h.* FROM (\n");
+        query.appendBranch(outgoing, "t.to_card_id", filter, after);
+        query.sql.append("    UNION ALL\n");
+        query.appendBranch(incoming, "t.from_card_id", filter, after);
+        query.sql.append(") h\nORDER BY h.created_at DESC, h.id DESC\nLIMIT :limit");
+        return query;
+    }
+
+    String sql() {
+        return sql.toString();
+    }
+
+    Map<String, Object> params() {
+        return params;
+    }
+
+    // Helper methods
+
+    private void appendBranch(String ownerCondition, String counterpartColumn, TransactionSearchFilter filter,
+                              TransactionCursor after) {
+        sql.append("    (SELECT t.* FROM transactions t\n")
+                .append("     WHERE ").append(ownerCondition).append('\n')
+                .append("       AND t.created_at >= :from AND t.created_at < :to\n");
+        if (filter.minAmount() != null) {
+            sql.append("       AND t.amount >= :minAmount\n");
+        }
+        if (filter.maxAmount() != null) {
+            sql.append("       AND t.amount <= :maxAmount\n");
+        }
+        if (filter.counterpartLastFour() != null) {
+            sql.append("       AND ").append(counterpartColumn)
+                    .append(" IN (SELECT c.id FROM cards c WHERE c.last_four = :counterpartLastFour)\n");
+        }
+        if (after != null) {
+            sql.append("       AND (t.created_at < :createdAt OR (t.created_at = :createdAt AND t.id < :id))\n");
+        }
+        sql.append("     ORDER BY t.created_at DESC, t.id DESC\n")
+                .append("     LIMIT :limit)\n");
+    }
+}
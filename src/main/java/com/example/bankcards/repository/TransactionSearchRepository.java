@@ -0,0 +1,15 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.util.TransactionCursor;
+
+import java.util.List;
+
+public interface TransactionSearchRepository {
+
+    /**
+     * До limit транзакций пользователя по условиям filter, новые первыми, строго после курсора after (null — с начала)
+     */
+    List<Transactions> search(Long userId, boolean byOwner, TransactionSearchFilter filter,
+                              TransactionCursor after, int limit);
+}
@@ -0,0 +1,25 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.util.TransactionCursor;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+import java.util.List;
+
+class TransactionSearchRepositoryImpl implements TransactionSearchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Transactions> search(Long userId, boolean byOwner, TransactionSearchFilter filter,
+                                     TransactionCursor after, int limit) {
+        TransactionSearchQuery search = TransactionSearchQuery.build(userId, byOwner, filter, after, limit);
+        Query query = entityManager.createNativeQuery(search.sql(), Transactions.class);
+        search.params().forEach(query::setParameter);
+        return query.getResultList();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.AsyncTransferResponse;
+
+import java.util.UUID;
+
+public interface AsyncTransferService {
+    AsyncTransferResponse submit(Long userId, TransferRequest request);
+
+    AsyncTransferResponse getStatus(Long userId, UUID transferId);
+
+    /**
+     * Выполняет до limit ожидающих переводов одной транзакцией, возвращает число обработанных.
+     * Если транзакция пачки откатилась, переводы выполняются по одному в отдельных транзакциях
+     */
+    int processPending(int limit);
+}
@@ -3,11 +3,14 @@ package com.example.bankcards.service;
 
 import com.example.bankcards.dto.response.CardBalanceResponse;
 import com.example.bankcards.dto.response.CardResponse;
+import com.example.bankcards.dto.response.CardStatementResponse;
+import com.example.bankcards.dto.response.CardTransactionResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
 
 import java.math.BigDecimal;
-
-import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.YearMonth;
 
 public interface CardService {
     // ADMIN operations
@@ -15,12 +18,18 @@ public interface CardService {
     CardResponse blockCard(Long cardId, String reason);
     CardResponse activateCard(Long cardId);
     void deleteCard(Long cardId);
-    PageResponse<CardResponse> getAllCards(int page, int size);
+    PageResponse<CardResponse> getAllCards(int page, int size, PageTotal pageTotal);
+    PageResponse<CardResponse> searchAllCards(String lastFour, int page, int size, PageTotal pageTotal);
     void topUpCard(Long cardId, BigDecimal amount);
+    CardResponse configureBalanceShards(Long cardId, int shards);
 
     // USER operations
     CardResponse requestCardBlock(Long userId, Long cardId, String reason);
-    PageResponse<CardResponse> getUserCards(Long userId, int page, int size);
+    PageResponse<CardResponse> getUserCards(Long userId, int page, int size, PageTotal pageTotal);
     CardBalanceResponse getCardBalance(Long userId, Long cardId);
-    PageResponse<CardResponse> searchUserCards(Long userId, String lastFour, int page, int size);
+    CardBalanceResponse getCardBalanceAt(Long userId, Long cardId, Instant at);
+    CardStatementResponse getCardStatement(Long userId, Long cardId, YearMonth month);
+    CursorPageResponse<CardTransactionResponse> getCardTransactions(Long userId, Long cardId, String cursor, int size);
+    PageResponse<CardResponse> searchUserCards(Long userId, String lastFour, int page, int size,
+                                               PageTotal pageTotal);
 }
\ No newline at end of file
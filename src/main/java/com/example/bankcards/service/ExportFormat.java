@@ -0,0 +1,23 @@
+package com.example.bankcards.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Формат выгрузки истории транзакций
+ */
+@Getter
+@RequiredArgsConstructor
+public enum ExportFormat {
+    /**
+     * Один JSON-объект на строку
+     */
+    NDJSON("application/x-ndjson", "ndjson"),
+    /**
+     * CSV с заголовком, разделитель — запятая
+     */
+    CSV("text/csv", "csv");
+
+    private final String contentType;
+    private final String extension;
+}
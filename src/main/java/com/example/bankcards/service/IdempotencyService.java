@@ -0,0 +1,17 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public interface IdempotencyService {
+
+    /**
+     * transfer получает обработчик, который нужно вызвать с ответом в транзакции перевода:
+     * он сохраняет результат для ключа, так что перевод и сохраненный ответ фиксируются вместе
+     */
+    TransactionResponse executeTransfer(Long userId, String idempotencyKey, TransferRequest request,
+                                        Function<Consumer<TransactionResponse>, TransactionResponse> transfer);
+}
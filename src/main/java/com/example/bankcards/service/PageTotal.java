@@ -0,0 +1,27 @@
+package com.example.bankcards.service;
+
+/**
+ * Как страница списка получает общее число элементов (параметры withTotal и approximateTotal)
+ */
+public enum PageTotal {
+    /**
+     * Точное число: отдельный запрос count(*) к каждой странице
+     */
+    EXACT,
+    /**
+     * Без общего числа: читается size + 1 строка, в ответе только hasNext
+     */
+    NONE,
+    /**
+     * Оценка числа строк из статистики PostgreSQL (pg_class.reltuples) — только для списков без фильтра.
+     * Если оценки нет, считается точное число
+     */
+    ESTIMATED;
+
+    public static PageTotal of(boolean withTotal, boolean approximate) {
+        if (!withTotal) {
+            return NONE;
+        }
+        return approximate ? ESTIMATED : EXACT;
+    }
+}
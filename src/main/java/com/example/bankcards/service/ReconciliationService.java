@@ -0,0 +1,13 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.response.PageResponse;
+import com.example.bankcards.dto.response.ReconciliationMismatchResponse;
+import com.example.bankcards.dto.response.ReconciliationRunResponse;
+
+public interface ReconciliationService {
+    ReconciliationRunResponse startRun();
+
+    ReconciliationRunResponse getRun(Long runId);
+
+    PageResponse<ReconciliationMismatchResponse> getMismatches(Long runId, int page, int size);
+}
@@ -0,0 +1,9 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.response.StatementRebuildResponse;
+
+public interface StatementRollupService {
+    StatementRebuildResponse startRebuild();
+
+    StatementRebuildResponse getRun(Long runId);
+}
@@ -0,0 +1,14 @@
+package com.example.bankcards.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Instant;
+
+public interface TransactionExportService {
+
+    /**
+     * Проверяет параметры сразу и возвращает выгрузку транзакций пользователя за [from, to),
+     * которая пишется в ответ по мере чтения из БД. from и to необязательны
+     */
+    StreamingResponseBody exportMyTransactions(Long userId, ExportFormat format, Instant from, Instant to);
+}
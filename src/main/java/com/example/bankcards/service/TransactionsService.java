@@ -1,15 +1,29 @@
 package com.example.bankcards.service;
 
+import com.example.bankcards.dto.requests.BatchTransferRequest;
 import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.BatchTransferResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
 import com.example.bankcards.dto.response.TransactionResponse;
 import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.repository.TransactionSearchFilter;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 public interface    TransactionsService {
     TransactionResponse transferBetweenOwnCards(Long userId, TransferRequest request);
-    PageResponse<TransactionResponse> getMyTransactions(Long userId, int page, int size);
+    TransactionResponse transferBetweenOwnCards(Long userId, TransferRequest request,
+                                                Consumer<TransactionResponse> onRecorded);
+    BatchTransferResponse transferBatch(Long userId, BatchTransferRequest request);
+    PageResponse<TransactionResponse> getMyTransactions(Long userId, int page, int size, Instant from, Instant to,
+                                                        PageTotal pageTotal);
+    CursorPageResponse<TransactionResponse> getMyTransactionsByCursor(Long userId, String cursor, int size,
+                                                                      Instant from, Instant to);
+    CursorPageResponse<TransactionResponse> searchTransactions(Long userId, TransactionSearchFilter filter,
+                                                               String cursor, int size);
 }
@@ -0,0 +1,24 @@
+package com.example.bankcards.service;
+
+/**
+ * Режим выполнения перевода между картами (app.transfer.mode)
+ */
+public enum TransferMode {
+    /**
+     * Загрузка обеих карт с блокировкой FOR UPDATE и изменение баланса через сущности
+     */
+    PESSIMISTIC,
+    /**
+     * Списание и зачисление условными UPDATE без предварительного чтения карт
+     */
+    CONDITIONAL_UPDATE,
+    /**
+     * Чтение карт без блокировки, запись с проверкой версии и ограниченным числом повторов
+     */
+    OPTIMISTIC,
+    /**
+     * Очередь переводов по владельцу карт: однопоточные обработчики выполняют накопленные переводы
+     * одной транзакцией (групповая фиксация)
+     */
+    SEQUENCED
+}
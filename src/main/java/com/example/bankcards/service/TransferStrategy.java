@@ -0,0 +1,15 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+
+import java.util.function.Consumer;
+
+public interface TransferStrategy {
+    TransferMode getMode();
+
+    /**
+     * onRecorded вызывается с ответом в транзакции перевода: ошибка в нем откатывает перевод
+     */
+    TransactionResponse transfer(Long userId, TransferRequest request, Consumer<TransactionResponse> onRecorded);
+}
@@ -0,0 +1,97 @@
+package com.example.bankcards.service.impl;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Архивные строки, разложенные по диапазонам id карт за один проход по архиву (сверка, пересборка итогов).
+ * Сегменты упорядочены по времени и содержат карты всех диапазонов, поэтому отбор сегментов по границам карт
+ * ничего не отсекает, и чтение архива для каждого диапазона читало бы весь архив столько раз, сколько диапазонов.
+ * Диапазон потом обрабатывается в своем снимке: накопитель содержит сегменты до lastSegmentId,
+ * сегменты, зарегистрированные позже, дочитываются через TransactionArchive.forEachAfter
+ */
+final class ArchiveRangeScan<A> {
+
+    /**
+     * Добавляет строку в накопитель диапазона; строка между двумя диапазонами передается обоим
+     */
+    @FunctionalInterface
+    interface RowConsumer<A> {
+        void accept(A accumulator, long[] range, TransactionArchive.Row row);
+    }
+
+    private final long minCardId;
+    private final long rangeSize;
+    private final Object[] accumulators;
+    private final long lastSegmentId;
+
+    private ArchiveRangeScan(long minCardId, long rangeSize, Object[] accumulators, long lastSegmentId) {
+        this.minCardId = minCardId;
+        this.rangeSize = rangeSize;
+        this.accumulators = accumulators;
+        this.lastSegmentId = lastSegmentId;
+    }
+
+    /**
+     * Читает архив один раз. ranges — диапазоны по rangeSize карт подряд от ranges[0][0]
+     */
+    static <A> ArchiveRangeScan<A> scan(TransactionArchive transactionArchive, List<long[]> ranges, long rangeSize,
+                                        Function<long[], A> factory, RowConsumer<A> consumer) {
+        Object[] accumulators = new Object[ranges.size()];
+        if (ranges.isEmpty()) {
+            return new ArchiveRangeScan<>(0, rangeSize, accumulators, 0);
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            accumulators[i] = factory.apply(ranges.get(i));
+        }
+
+        long minCardId = ranges.get(0)[0];
+        long maxCardId = ranges.get(ranges.size() - 1)[1];
+        long lastSegmentId = transactionArchive.forEachVisible(
+                TransactionArchive.CardFilter.range(minCardId, maxCardId), row -> {
+                    int from = index(row.fromCardId(), minCardId, maxCardId, rangeSize);
+                    int to = index(row.toCardId(), minCardId, maxCardId, rangeSize);
+                    if (from >= 0) {
+                        accept(consumer, accumulators[from], ranges.get(from), row);
+                    }
+                    if (to >= 0 && to != from) {
+                        accept(consumer, accumulators[to], ranges.get(to), row);
+                    }
+                });
+        return new ArchiveRangeScan<>(minCardId, rangeSize, accumulators, lastSegmentId);
+    }
+
+    /**
+     * Накопитель диапазона; ссылка на него отпускается, чтобы обработанные диапазоны не держали память
+     */
+    @SuppressWarnings("unchecked")
+    A take(long[] range) {
+        int index = index(range[0], minCardId, range[1], rangeSize);
+        A accumulator = (A) accumulators[index];
+        accumulators[index] = null;
+        return accumulator;
+    }
+
+    /**
+     * Последний прочитанный сегмент (0 — архив был пуст)
+     */
+    long lastSegmentId() {
+        return lastSegmentId;
+    }
+
+    // Helper methods
+
+    // Номер диапазона карты, -1 — карта вне [minCardId, maxCardId]
+    private static int index(long cardId, long minCardId, long maxCardId, long rangeSize) {
+        if (cardId < minCardId || cardId > maxCardId) {
+            return -1;
+        }
+        return Math.toIntExact((cardId - minCardId) / rangeSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A> void accept(RowConsumer<A> consumer, Object accumulator, long[] range,
+                                   TransactionArchive.Row row) {
+        consumer.accept((A) accumulator, range, row);
+    }
+}
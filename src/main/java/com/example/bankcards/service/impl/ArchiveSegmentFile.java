@@ -0,0 +1,246 @@
+package com.example.bankcards.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Файл сегмента архива transactions с хранением по колонкам.
+ * <p>
+ * Формат: магическое число, версия, число строк, min/max created_at (наносекунды от эпохи), min/max id карт,
+ * масштаб сумм, каталог колонок (смещение, длина, CRC32) и сами колонки. Колонка — последовательность чисел,
+ * сжатая Deflate. Строки упорядочены по (created_at, id), поэтому created_at хранится разностями соседних значений,
+ * id карт и суммы (без масштаба, с общим масштабом сегмента) — в zigzag varint. Запрос читает только нужные колонки
+ */
+final class ArchiveSegmentFile {
+
+    static final String SUFFIX = ".tcol";
+
+    private static final int MAGIC = 0x42435441;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4 * Long.BYTES + 4;
+    private static final int DIRECTORY_ENTRY_SIZE = Long.BYTES + 4 + 4;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    enum Column {
+        CREATED_AT, ID_HIGH, ID_LOW, FROM_CARD, TO_CARD, AMOUNT
+    }
+
+    record Header(int rowCount, long minCreatedAt, long maxCreatedAt, long minCardId, long maxCardId,
+                  int amountScale, long[] offsets, int[] lengths, int[] checksums) {
+    }
+
+    private ArchiveSegmentFile() {
+    }
+
+    /**
+     * Пишет строки (уже упорядоченные по created_at, id) во временный файл, сбрасывает его на диск
+     * и атомарно переименовывает в path. Возвращает заголовок записанного файла
+     */
+    static Header write(Path path, List<TransactionArchive.Row> rows) throws IOException {
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("Сегмент архива не может быть пустым");
+        }
+        int scale = rows.stream().mapToInt(row -> row.amount().scale()).max().orElse(0);
+        long minCardId = Long.MAX_VALUE;
+        long maxCardId = Long.MIN_VALUE;
+        for (TransactionArchive.Row row : rows) {
+            minCardId = Math.min(minCardId, Math.min(row.fromCardId(), row.toCardId()));
+            maxCardId = Math.max(maxCardId, Math.max(row.fromCardId(), row.toCardId()));
+        }
+
+        Column[] columns = Column.values();
+        byte[][] blocks = new byte[columns.length][];
+        for (Column column : columns) {
+            blocks[column.ordinal()] = encode(column, rows, scale);
+        }
+
+        long[] offsets = new long[columns.length];
+        int[] lengths = new int[columns.length];
+        int[] checksums = new int[columns.length];
+        long offset = HEADER_SIZE + (long) columns.length * DIRECTORY_ENTRY_SIZE;
+        for (int i = 0; i < columns.length; i++) {
+            CRC32 crc = new CRC32();
+            crc.update(blocks[i]);
+            offsets[i] = offset;
+            lengths[i] = blocks[i].length;
+            checksums[i] = (int) crc.getValue();
+            offset += blocks[i].length;
+        }
+
+        Header header = new Header(rows.size(),
+                toNanos(rows.get(0).createdAt()), toNanos(rows.get(rows.size() - 1).createdAt()),
+                minCardId, maxCardId, scale, offsets, lengths, checksums);
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + columns.length * DIRECTORY_ENTRY_SIZE)
+                .putInt(MAGIC)
+                .putShort(VERSION)
+                .putInt(header.rowCount())
+                .putLong(header.minCreatedAt())
+                .putLong(header.maxCreatedAt())
+                .putLong(header.minCardId())
+                .putLong(header.maxCardId())
+                .putInt(header.amountScale());
+        for (int i = 0; i < columns.length; i++) {
+            head.putLong(offsets[i]).putInt(lengths[i]).putInt(checksums[i]);
+        }
+        head.flip();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, head);
+            for (byte[] block : blocks) {
+                writeFully(channel, ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        return header;
+    }
+
+    static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer head = readFully(channel, 0, HEADER_SIZE);
+        if (head.getInt() != MAGIC || head.getShort() != VERSION) {
+            throw new IOException("Неизвестный формат сегмента архива");
+        }
+        int rowCount = head.getInt();
+        long minCreatedAt = head.getLong();
+        long maxCreatedAt = head.getLong();
+        long minCardId = head.getLong();
+        long maxCardId = head.getLong();
+        int scale = head.getInt();
+
+        int count = Column.values().length;
+        ByteBuffer directory = readFully(channel, HEADER_SIZE, count * DIRECTORY_ENTRY_SIZE);
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        int[] checksums = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = directory.getLong();
+            lengths[i] = directory.getInt();
+            checksums[i] = directory.getInt();
+        }
+        return new Header(rowCount, minCreatedAt, maxCreatedAt, minCardId, maxCardId, scale,
+                offsets, lengths, checksums);
+    }
+
+    /**
+     * Читает и распаковывает одну колонку. created_at возвращается в наносекундах от эпохи,
+     * суммы — без масштаба (масштаб в заголовке)
+     */
+    static long[] readColumn(FileChannel channel, Header header, Column column) throws IOException {
+        int i = column.ordinal();
+        ByteBuffer block = readFully(channel, header.offsets()[i], header.lengths()[i]);
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate());
+        if ((int) crc.getValue() != header.checksums()[i]) {
+            throw new IOException("Повреждена колонка " + column + " сегмента архива");
+        }
+
+        long[] values = new long[header.rowCount()];
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(block.array(), block.arrayOffset(), block.remaining())))) {
+            long previous = 0;
+            for (int row = 0; row < values.length; row++) {
+                switch (column) {
+                    case ID_HIGH, ID_LOW -> values[row] = in.readLong();
+                    case CREATED_AT -> values[row] = previous += readVarLong(in);
+                    default -> values[row] = readVarLong(in);
+                }
+            }
+        }
+        return values;
+    }
+
+    static long toNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+    }
+
+    static Instant toInstant(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND), Math.floorMod(nanos, NANOS_PER_SECOND));
+    }
+
+    // Helper methods
+
+    private static byte[] encode(Column column, List<TransactionArchive.Row> rows, int scale) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            long previous = 0;
+            for (TransactionArchive.Row row : rows) {
+                switch (column) {
+                    case CREATED_AT -> {
+                        long createdAt = toNanos(row.createdAt());
+                        writeVarLong(out, createdAt - previous);
+                        previous = createdAt;
+                    }
+                    case ID_HIGH -> out.writeLong(row.id().getMostSignificantBits());
+                    case ID_LOW -> out.writeLong(row.id().getLeastSignificantBits());
+                    case FROM_CARD -> writeVarLong(out, row.fromCardId());
+                    case TO_CARD -> writeVarLong(out, row.toCardId());
+                    case AMOUNT -> writeVarLong(out, unscaled(row.amount(), scale));
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long unscaled(BigDecimal amount, int scale) {
+        return amount.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Сегмент архива оборван");
+            }
+        }
+        return buffer.flip();
+    }
+}
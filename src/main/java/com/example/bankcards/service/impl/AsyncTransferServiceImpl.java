@@ -0,0 +1,199 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.AsyncTransferResponse;
+import com.example.bankcards.entity.AsyncTransfer;
+import com.example.bankcards.entity.AsyncTransferStatus;
+import com.example.bankcards.repository.AsyncTransferRepository;
+import com.example.bankcards.repository.TransactionRepository;
+import com.example.bankcards.service.AsyncTransferService;
+import com.example.bankcards.util.TransactionMapper;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Асинхронные переводы: запрос сохраняется в transfer_requests и сразу подтверждается,
+ * обработчики (AsyncTransferWorker) забирают строки через FOR UPDATE SKIP LOCKED
+ * и выполняют их через TransferBatchProcessor в той же транзакции, что и смена статуса.
+ * Если пачка откатилась, ее переводы выполняются по одному в отдельных транзакциях:
+ * неудачная попытка увеличивает attempts, после maxAttempts перевод помечается FAILED
+ */
+@Slf4j
+@Service
+@Transactional
+public class AsyncTransferServiceImpl implements AsyncTransferService {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final AsyncTransferRepository asyncTransferRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransferBatchProcessor transferBatchProcessor;
+    private final TransactionMapper transactionMapper;
+    private final TransactionTemplate requiresNewTemplate;
+    private final int maxAttempts;
+
+    public AsyncTransferServiceImpl(
+            AsyncTransferRepository asyncTransferRepository,
+            TransactionRepository transactionRepository,
+            TransferBatchProcessor transferBatchProcessor,
+            TransactionMapper transactionMapper,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.transfer.async.max-attempts:5}") int maxAttempts
+    ) {
+        this.asyncTransferRepository = asyncTransferRepository;
+        this.transactionRepository = transactionRepository;
+        this.transferBatchProcessor = transferBatchProcessor;
+        this.transactionMapper = transactionMapper;
+        this.requiresNewTemplate = new TransactionTemplate(transactionManager);
+        this.requiresNewTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public AsyncTransferResponse submit(Long userId, TransferRequest request) {
+        if (request.getFromCardId().equals(request.getToCardId())) {
+            throw new IllegalArgumentException("Нельзя переводить на ту же карту");
+        }
+
+        AsyncTransfer transfer = AsyncTransfer.builder()
+                .userId(userId)
+                .fromCardId(request.getFromCardId())
+                .toCardId(request.getToCardId())
+                .amount(request.getAmount())
+                .status(AsyncTransferStatus.PENDING)
+                .createdAt(Instant.now())
+                .build();
+
+        return toResponse(asyncTransferRepository.save(transfer));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public AsyncTransferResponse getStatus(Long userId, UUID transferId) {
+        AsyncTransfer transfer = asyncTransferRepository.findByIdAndUserId(transferId, userId)
+                .orElseThrow(() -> new EntityNotFoundException("Перевод не найден: " + transferId));
+
+        return toResponse(transfer);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int processPending(int limit) {
+        List<UUID> claimedIds = new ArrayList<>();
+        try {
+            return requiresNewTemplate.execute(status -> processBatch(limit, claimedIds));
+        } catch (RuntimeException e) {
+            log.warn("Пачка из {} асинхронных переводов откатилась, переводы выполняются по одному",
+                    claimedIds.size(), e);
+        }
+
+        // Каждый перевод — в своей транзакции: ошибочная строка не откатывает остальные
+        for (UUID transferId : claimedIds) {
+            try {
+                requiresNewTemplate.executeWithoutResult(status -> processOne(transferId));
+            } catch (RuntimeException e) {
+                requiresNewTemplate.executeWithoutResult(status -> recordFailedAttempt(transferId, e));
+            }
+        }
+        return claimedIds.size();
+    }
+
+    // Helper methods
+
+    private int processBatch(int limit, List<UUID> claimedIds) {
+        List<AsyncTransfer> claimed = asyncTransferRepository.findNextForProcessing(
+                AsyncTransferStatus.PENDING, PageRequest.of(0, limit));
+        claimed.forEach(transfer -> claimedIds.add(transfer.getId()));
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        execute(claimed);
+        return claimed.size();
+    }
+
+    private void processOne(UUID transferId) {
+        // Строку мог уже забрать или выполнить другой обработчик
+        asyncTransferRepository.findByIdForProcessing(transferId, AsyncTransferStatus.PENDING)
+                .ifPresent(transfer -> execute(List.of(transfer)));
+    }
+
+    private void recordFailedAttempt(UUID transferId, RuntimeException error) {
+        asyncTransferRepository.findByIdForProcessing(transferId, AsyncTransferStatus.PENDING)
+                .ifPresent(transfer -> {
+                    transfer.setAttempts(transfer.getAttempts() + 1);
+                    if (transfer.getAttempts() < maxAttempts) {
+                        log.warn("Асинхронный перевод {} не выполнен (попытка {} из {}), остается в PENDING",
+                                transferId, transfer.getAttempts(), maxAttempts, error);
+                        return;
+                    }
+                    log.error("Асинхронный перевод {} не выполнен за {} попыток, помечается FAILED",
+                            transferId, maxAttempts, error);
+                    transfer.setStatus(AsyncTransferStatus.FAILED);
+                    transfer.setError(truncate(error.getMessage()));
+                    transfer.setProcessedAt(Instant.now());
+                });
+    }
+
+    private void execute(List<AsyncTransfer> claimed) {
+        List<TransferBatchProcessor.Outcome> outcomes = transferBatchProcessor.process(claimed.stream()
+                .map(transfer -> new TransferBatchProcessor.Command(transfer.getUserId(), TransferRequest.builder()
+                        .fromCardId(transfer.getFromCardId())
+                        .toCardId(transfer.getToCardId())
+                        .amount(transfer.getAmount())
+                        .build()))
+                .toList());
+
+        Instant processedAt = Instant.now();
+        for (int i = 0; i < claimed.size(); i++) {
+            AsyncTransfer transfer = claimed.get(i);
+            TransferBatchProcessor.Outcome outcome = outcomes.get(i);
+            if (outcome.isSuccess()) {
+                transfer.setStatus(AsyncTransferStatus.COMPLETED);
+                transfer.setTransactionId(outcome.transaction().getId());
+            } else {
+                transfer.setStatus(AsyncTransferStatus.FAILED);
+                transfer.setError(truncate(outcome.error().getMessage()));
+            }
+            transfer.setProcessedAt(processedAt);
+        }
+    }
+
+    private AsyncTransferResponse toResponse(AsyncTransfer transfer) {
+        return AsyncTransferResponse.builder()
+                .id(transfer.getId())
+                .status(transfer.getStatus().name())
+                .fromCardId(transfer.getFromCardId())
+                .toCardId(transfer.getToCardId())
+                .amount(transfer.getAmount())
+                // Строка transactions могла уже уйти в архив
+                .transaction(transfer.getTransactionId() == null ? null : transactionRepository
+                        .findById(transfer.getTransactionId())
+                        .map(transactionMapper::toResponse)
+                        .orElse(null))
+                .error(transfer.getError())
+                .createdAt(transfer.getCreatedAt())
+                .processedAt(transfer.getProcessedAt())
+                .build();
+    }
+
+    private String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.service.AsyncTransferService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потоки, выполняющие очередь асинхронных переводов. Несколько узлов приложения
+ * делят одну очередь без дополнительной координации: строки разбираются через SKIP LOCKED
+ */
+@Slf4j
+@Component
+public class AsyncTransferWorker {
+
+    private final AsyncTransferService asyncTransferService;
+    private final int workers;
+    private final int batchSize;
+    private final Duration pollInterval;
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    public AsyncTransferWorker(
+            AsyncTransferService asyncTransferService,
+            @Value("${app.transfer.async.workers:2}") int workers,
+            @Value("${app.transfer.async.batch-size:50}") int batchSize,
+            @Value("${app.transfer.async.poll-interval:200ms}") Duration pollInterval
+    ) {
+        this.asyncTransferService = asyncTransferService;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+    }
+
+    @PostConstruct
+    void start() {
+        if (workers <= 0) {
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "async-transfer-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::run);
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(pollInterval.toMillis() * 10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int processed = 0;
+            try {
+                processed = asyncTransferService.processPending(batchSize);
+            } catch (RuntimeException e) {
+                // Транзакция откатилась, строки остались в PENDING и будут взяты повторно
+                log.warn("Не удалось обработать очередь асинхронных переводов", e);
+            }
+            if (processed == 0) {
+                sleep();
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(pollInterval.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
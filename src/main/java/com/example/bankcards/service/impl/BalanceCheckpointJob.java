@@ -0,0 +1,153 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.repository.CardBalanceCheckpointRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ночное построение контрольных точек баланса. Каждые сутки обрабатываются только операции
+ * после предыдущей контрольной точки: каждой карте с точкой на предыдущей границе или с операциями за сутки
+ * добавляется точка «предыдущая точка + сумма операций за сутки», включая перенесенные в архив переводы.
+ * Поэтому у карты без операций точка тоже есть на каждые сутки, и баланс на момент читает не больше суток
+ * операций и архива. Первый запуск сводит всю историю в одну точку
+ */
+@Slf4j
+@Component
+public class BalanceCheckpointJob {
+
+    private static final String INSERT_CHECKPOINTS_SQL = """
+            INSERT INTO card_balance_checkpoints (card_id, checkpoint_at, balance)
+            SELECT e.card_id, ?, SUM(e.delta)
+            FROM (SELECT c.card_id, c.balance AS delta FROM card_balance_checkpoints c
+                  WHERE c.checkpoint_at = ?
+                  UNION ALL
+                  SELECT t.to_card_id, t.amount FROM transactions t
+                  WHERE t.created_at >= ? AND t.created_at < ?
+                  UNION ALL
+                  SELECT t.from_card_id, -t.amount FROM transactions t
+                  WHERE t.created_at >= ? AND t.created_at < ?
+                  UNION ALL
+                  SELECT u.card_id, u.amount FROM card_top_ups u
+                  WHERE u.created_at >= ? AND u.created_at < ?) e
+            GROUP BY e.card_id
+            """;
+
+    private static final String ADD_ARCHIVED_SQL = """
+            UPDATE card_balance_checkpoints SET balance = balance + ?
+            WHERE card_id = ? AND checkpoint_at = ?
+            """;
+
+    private static final String INSERT_ARCHIVED_SQL = """
+            INSERT INTO card_balance_checkpoints (card_id, checkpoint_at, balance) VALUES (?, ?, ?)
+            """;
+
+    private static final TransactionArchive.CardFilter ALL_CARDS =
+            TransactionArchive.CardFilter.range(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final CardBalanceCheckpointRepository checkpointRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionArchive transactionArchive;
+    private final TransactionTemplate transactionTemplate;
+
+    public BalanceCheckpointJob(CardBalanceCheckpointRepository checkpointRepository,
+                                JdbcTemplate jdbcTemplate,
+                                TransactionArchive transactionArchive,
+                                PlatformTransactionManager transactionManager) {
+        this.checkpointRepository = checkpointRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionArchive = transactionArchive;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Архив и БД в одном снимке: строка, перенесенная в архив во время построения, учитывается один раз
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * Запускается после полуночи UTC
+     */
+    @Scheduled(cron = "${app.balance-checkpoints.cron:-}", zone = "UTC")
+    public void buildDailyCheckpoints() {
+        buildCheckpoints(Instant.now().truncatedTo(ChronoUnit.DAYS));
+    }
+
+    /**
+     * Строит контрольные точки до boundary (не включая операции в момент boundary), по одной на сутки
+     * начиная с последней существующей точки. Возвращает число добавленных точек
+     */
+    public int buildCheckpoints(Instant boundary) {
+        Instant previous = checkpointRepository.findLatestCheckpointAt().orElse(null);
+        int created = 0;
+
+        if (previous == null) {
+            created += insertCheckpoints(Instant.EPOCH, boundary);
+            previous = boundary;
+        }
+        while (previous.isBefore(boundary)) {
+            Instant next = previous.atOffset(ZoneOffset.UTC).plusDays(1).toInstant();
+            if (next.isAfter(boundary)) {
+                next = boundary;
+            }
+            created += insertCheckpoints(previous, next);
+            previous = next;
+        }
+
+        if (created > 0) {
+            log.info("Построено {} контрольных точек баланса до {}", created, boundary);
+        }
+        return created;
+    }
+
+    private int insertCheckpoints(Instant from, Instant to) {
+        Object fromParam = from.atOffset(ZoneOffset.UTC);
+        Object toParam = to.atOffset(ZoneOffset.UTC);
+        Integer inserted = transactionTemplate.execute(status -> {
+            Map<Long, BigDecimal> archived = new HashMap<>();
+            transactionArchive.forEach(ALL_CARDS, from, to, row -> {
+                archived.merge(row.toCardId(), row.amount(), BigDecimal::add);
+                archived.merge(row.fromCardId(), row.amount().negate(), BigDecimal::add);
+            });
+            int rows = jdbcTemplate.update(INSERT_CHECKPOINTS_SQL,
+                    toParam, fromParam, fromParam, toParam, fromParam, toParam, fromParam, toParam);
+            return rows + addArchived(archived, toParam);
+        });
+        return inserted == null ? 0 : inserted;
+    }
+
+    /**
+     * Добавляет архивные переводы суток к точкам, построенным по БД. Карте без точки и без операций в БД
+     * (нет и предыдущей точки, иначе точка была бы перенесена) точка создается из одних архивных переводов
+     */
+    private int addArchived(Map<Long, BigDecimal> archived, Object checkpointAt) {
+        if (archived.isEmpty()) {
+            return 0;
+        }
+        List<Map.Entry<Long, BigDecimal>> deltas = List.copyOf(archived.entrySet());
+        int[] updated = jdbcTemplate.batchUpdate(ADD_ARCHIVED_SQL, deltas.stream()
+                .map(delta -> new Object[]{delta.getValue(), delta.getKey(), checkpointAt})
+                .toList());
+
+        List<Object[]> missing = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                missing.add(new Object[]{deltas.get(i).getKey(), checkpointAt, deltas.get(i).getValue()});
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_ARCHIVED_SQL, missing);
+        }
+        return missing.size();
+    }
+}
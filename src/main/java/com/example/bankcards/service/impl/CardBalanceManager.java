@@ -0,0 +1,129 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardBalanceShard;
+import com.example.bankcards.repository.CardBalanceShardRepository;
+import com.example.bankcards.repository.CardRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Операции с балансом карты с учетом шардированного баланса.
+ * Для обычной карты (balanceShards = 0) баланс меняется в самой сущности Card.
+ * Для «горячей» карты зачисление попадает в случайную часть из card_balance_shards
+ * без блокировки строки cards, а списание при нехватке основного баланса
+ * переносит части в строку карты, пока сумма не будет покрыта
+ */
+@Component
+@RequiredArgsConstructor
+public class CardBalanceManager {
+
+    public static final int MAX_SHARDS = 64;
+
+    private final CardRepository cardRepository;
+    private final CardBalanceShardRepository shardRepository;
+
+    public boolean isSharded(Card card) {
+        return card.getBalanceShards() > 0;
+    }
+
+    /**
+     * Полный баланс карты: основная строка плюс все части
+     */
+    public BigDecimal totalBalance(Card card) {
+        if (!isSharded(card)) {
+            return card.getBalance();
+        }
+        return card.getBalance().add(shardRepository.sumBalanceByCardId(card.getId()));
+    }
+
+    /**
+     * Полные балансы страницы карт по id: части всех шардированных карт читаются одним запросом
+     */
+    public Map<Long, BigDecimal> totalBalances(List<Card> cards) {
+        List<Long> sharded = cards.stream().filter(this::isSharded).map(Card::getId).toList();
+        Map<Long, BigDecimal> shardSums = new HashMap<>();
+        if (!sharded.isEmpty()) {
+            shardRepository.sumBalanceByCardIds(sharded)
+                    .forEach(row -> shardSums.put((Long) row[0], (BigDecimal) row[1]));
+        }
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        for (Card card : cards) {
+            balances.put(card.getId(), card.getBalance().add(shardSums.getOrDefault(card.getId(), BigDecimal.ZERO)));
+        }
+        return balances;
+    }
+
+    /**
+     * Зачисление на карту. Для обычной карты сущность должна быть заблокирована вызывающим кодом.
+     * Возвращает номер части, в которую попало зачисление (0 — основная строка карты):
+     * в ту же часть месячных итогов CardMonthlyRollups записывается зачисление
+     */
+    public int credit(Card card, BigDecimal amount) {
+        if (!isSharded(card)) {
+            card.setBalance(card.getBalance().add(amount));
+            return 0;
+        }
+
+        int shardNo = ThreadLocalRandom.current().nextInt(card.getBalanceShards());
+        if (shardRepository.credit(card.getId(), shardNo, amount) == 0) {
+            // Число частей уменьшили параллельно — зачисляем в основную строку
+            cardRepository.creditBalance(card.getId(), amount);
+            return 0;
+        }
+        return shardNo;
+    }
+
+    /**
+     * Переносит части баланса в строку карты, пока ее баланс не покроет сумму списания.
+     * Строка карты должна быть заблокирована (или проверяться по версии) вызывающим кодом
+     */
+    public void ensureAvailable(Card card, BigDecimal amount) {
+        if (!isSharded(card) || card.getBalance().compareTo(amount) >= 0) {
+            return;
+        }
+
+        for (CardBalanceShard shard : shardRepository.findAllByCardIdWithLock(card.getId())) {
+            if (card.getBalance().compareTo(amount) >= 0) {
+                break;
+            }
+            if (shard.getBalance().signum() > 0) {
+                card.setBalance(card.getBalance().add(shard.getBalance()));
+                shard.setBalance(BigDecimal.ZERO);
+            }
+        }
+    }
+
+    /**
+     * Изменяет число частей баланса. Удаляемые части переносятся в строку карты.
+     * Строка карты должна быть заблокирована вызывающим кодом
+     */
+    public void reshard(Card card, int shards) {
+        if (shards < 0 || shards > MAX_SHARDS) {
+            throw new IllegalArgumentException("Число частей баланса должно быть от 0 до " + MAX_SHARDS);
+        }
+
+        List<CardBalanceShard> existing = shardRepository.findAllByCardIdWithLock(card.getId());
+        for (CardBalanceShard shard : existing) {
+            if (shard.getShardNo() >= shards) {
+                card.setBalance(card.getBalance().add(shard.getBalance()));
+                shardRepository.delete(shard);
+            }
+        }
+        for (int shardNo = existing.size(); shardNo < shards; shardNo++) {
+            shardRepository.save(CardBalanceShard.builder()
+                    .cardId(card.getId())
+                    .shardNo(shardNo)
+                    .balance(BigDecimal.ZERO)
+                    .build());
+        }
+
+        card.setBalanceShards(shards);
+    }
+}
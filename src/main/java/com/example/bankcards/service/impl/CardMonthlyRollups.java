@@ -0,0 +1,89 @@
+package com.example.bankcards.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+
+/**
+ * Обновление месячных итогов карт (card_monthly_rollups) в транзакции операции: итоги фиксируются
+ * или откатываются вместе с балансом. Строка месяца обновляется атомарным UPDATE, при ее отсутствии
+ * вставляется; если ее одновременно вставила другая транзакция, вставка пропускается и UPDATE повторяется.
+ * Зачисления на карту с шардированным балансом пишутся в часть итогов с номером части баланса
+ * (shard_no), поэтому параллельные пополнения «горячей» карты не ждут друг друга на одной строке месяца;
+ * списания и зачисления обычных карт идут в часть 0. Выписка суммирует части месяца.
+ * Строки двух карт перевода обновляются по возрастанию id карт, чтобы встречные переводы не взаимоблокировались
+ */
+@Component
+@RequiredArgsConstructor
+public class CardMonthlyRollups {
+
+    private static final String UPDATE_SQL = """
+            UPDATE card_monthly_rollups
+            SET incoming_amount = incoming_amount + ?, incoming_count = incoming_count + ?,
+                outgoing_amount = outgoing_amount + ?, outgoing_count = outgoing_count + ?
+            WHERE card_id = ? AND statement_month = ? AND shard_no = ?
+            """;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO card_monthly_rollups
+                (card_id, statement_month, shard_no, incoming_amount, incoming_count, outgoing_amount, outgoing_count)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Месяц выписки операции — календарный месяц момента at в UTC
+     */
+    public static YearMonth monthOf(Instant at) {
+        return YearMonth.from(at.atOffset(ZoneOffset.UTC));
+    }
+
+    /**
+     * creditShard — часть баланса получателя, в которую попало зачисление (CardBalanceManager.credit)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordTransfer(long fromCardId, long toCardId, int creditShard, BigDecimal amount, Instant at) {
+        YearMonth month = monthOf(at);
+        if (fromCardId < toCardId) {
+            add(fromCardId, month, 0, BigDecimal.ZERO, 0, amount, 1);
+            add(toCardId, month, creditShard, amount, 1, BigDecimal.ZERO, 0);
+        } else {
+            add(toCardId, month, creditShard, amount, 1, BigDecimal.ZERO, 0);
+            add(fromCardId, month, 0, BigDecimal.ZERO, 0, amount, 1);
+        }
+    }
+
+    /**
+     * Пополнение учитывается как зачисление в часть creditShard
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordTopUp(long cardId, int creditShard, BigDecimal amount, Instant at) {
+        add(cardId, monthOf(at), creditShard, amount, 1, BigDecimal.ZERO, 0);
+    }
+
+    // Helper methods
+
+    private void add(long cardId, YearMonth month, int shardNo, BigDecimal incoming, long incomingCount,
+                     BigDecimal outgoing, long outgoingCount) {
+        String statementMonth = month.toString();
+        if (jdbcTemplate.update(UPDATE_SQL, incoming, incomingCount, outgoing, outgoingCount,
+                cardId, statementMonth, shardNo) > 0) {
+            return;
+        }
+        if (jdbcTemplate.update(INSERT_SQL, cardId, statementMonth, shardNo, incoming, incomingCount,
+                outgoing, outgoingCount) > 0) {
+            return;
+        }
+        jdbcTemplate.update(UPDATE_SQL, incoming, incomingCount, outgoing, outgoingCount,
+                cardId, statementMonth, shardNo);
+    }
+}
@@ -2,38 +2,75 @@ package com.example.bankcards.service.impl;
 
 import com.example.bankcards.dto.response.CardBalanceResponse;
 import com.example.bankcards.dto.response.CardResponse;
+import com.example.bankcards.dto.response.CardStatementResponse;
+import com.example.bankcards.dto.response.CardTransactionResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
 import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardBalanceCheckpoint;
+import com.example.bankcards.entity.CardMonthlyRollup;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.CardTopUp;
 import com.example.bankcards.entity.User;
 import com.example.bankcards.util.CardMapper;
+import com.example.bankcards.repository.CardBalanceCheckpointRepository;
+import com.example.bankcards.repository.CardMonthlyRollupRepository;
 import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.CardTopUpRepository;
+import com.example.bankcards.repository.TransactionRepository;
 import com.example.bankcards.repository.UserRepository;
 import com.example.bankcards.service.CardService;
+import com.example.bankcards.service.PageTotal;
 import com.example.bankcards.util.CardNumberEncryptor;
 import com.example.bankcards.util.CardNumberGenerator;
+import com.example.bankcards.util.TransactionCursor;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 @Transactional
 public class CardServiceImpl implements CardService {
 
+    private static final Pattern LAST_FOUR_QUERY = Pattern.compile("\\d{1,4}");
+
     private final CardRepository cardRepository;
     private final CardNumberEncryptor cryptoService;
     private final UserRepository userRepository;
     private final CardNumberGenerator cardNumberGenerator;
     private final CardMapper cardMapper;
+    private final CardBalanceManager cardBalanceManager;
+    private final CardTopUpRepository cardTopUpRepository;
+    private final CardBalanceCheckpointRepository checkpointRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransactionArchive transactionArchive;
+    private final CardMonthlyRollups cardMonthlyRollups;
+    private final CardMonthlyRollupRepository rollupRepository;
+    private final TableRowEstimator tableRowEstimator;
+
+    @Value("${app.cards.search.substring:false}")
+    private boolean substringSearch;
 
     @Override
     public CardResponse createCard(Long ownerId) {
@@ -54,7 +91,7 @@ public class CardServiceImpl implements CardService {
                 .build();
 
         Card savedCard = cardRepository.save(card);
-        return cardMapper.toResponse(savedCard);
+        return toResponse(savedCard);
     }
 
     @Override
@@ -70,7 +107,7 @@ public class CardServiceImpl implements CardService {
         // Здесь можно добавить поле blockedReason, если оно есть в Entity
         Card savedCard = cardRepository.save(card);
 
-        return cardMapper.toResponse(savedCard);
+        return toResponse(savedCard);
     }
 
     @Override
@@ -85,7 +122,7 @@ public class CardServiceImpl implements CardService {
         card.setStatus(CardStatus.ACTIVE);
         Card savedCard = cardRepository.save(card);
 
-        return cardMapper.toResponse(savedCard);
+        return toResponse(savedCard);
     }
 
     @Override
@@ -110,15 +147,18 @@ public class CardServiceImpl implements CardService {
         card.setStatus(CardStatus.BLOCKED);
         Card savedCard = cardRepository.save(card);
 
-        return cardMapper.toResponse(savedCard);
+        return toResponse(savedCard);
     }
 
     @Override
     @Transactional(readOnly = true)
-    public PageResponse<CardResponse> getUserCards(Long userId, int page, int size) {
+    public PageResponse<CardResponse> getUserCards(Long userId, int page, int size, PageTotal pageTotal) {
         validatePagination(page, size);
 
         Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
+        if (pageTotal == PageTotal.NONE) {
+            return mapToSliceResponse(cardRepository.findSliceByOwnerId(userId, pageable));
+        }
         Page<Card> cardsPage = cardRepository.findByOwnerId(userId, pageable);
 
         return mapToPageResponse(cardsPage);
@@ -134,37 +174,168 @@ public class CardServiceImpl implements CardService {
         return CardBalanceResponse.builder()
                 .cardId(card.getId())
                 .maskedCardNumber(maskCardNumber(card.getLastFour()))
-                .balance(card.getBalance())
+                .balance(cardBalanceManager.totalBalance(card))
+                .currency("KZT")
+                .build();
+    }
+
+    /**
+     * Баланс на момент at: ближайшая контрольная точка не позже at плюс пополнения и переводы после нее
+     * (переводы — из БД и из архива, в одном снимке, чтобы перенос в архив не учел строку дважды или ни разу).
+     * Контрольные точки строятся каждые сутки, поэтому просматривается не больше суток операций карты
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public CardBalanceResponse getCardBalanceAt(Long userId, Long cardId, Instant at) {
+        Card card = cardRepository.findByIdAndOwnerId(cardId, userId)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта не найдена или не принадлежит пользователю"));
+
+        Optional<CardBalanceCheckpoint> checkpoint = checkpointRepository
+                .findFirstByCardIdAndCheckpointAtLessThanEqualOrderByCheckpointAtDesc(cardId, at);
+        Instant from = checkpoint.map(CardBalanceCheckpoint::getCheckpointAt).orElse(Instant.EPOCH);
+
+        BigDecimal balance = checkpoint.map(CardBalanceCheckpoint::getBalance).orElse(BigDecimal.ZERO)
+                .add(cardTopUpRepository.sumAmount(cardId, from, at))
+                .add(transactionRepository.sumIncoming(cardId, from, at))
+                .subtract(transactionRepository.sumOutgoing(cardId, from, at))
+                .add(sumArchived(cardId, from, at));
+
+        return CardBalanceResponse.builder()
+                .cardId(card.getId())
+                .maskedCardNumber(maskCardNumber(card.getLastFour()))
+                .balance(balance)
                 .currency("KZT")
+                .asOf(at)
                 .build();
     }
 
+    /**
+     * Выписка за месяц — сумма частей месячных итогов карты, без операций за месяц нули
+     */
     @Override
     @Transactional(readOnly = true)
-    public PageResponse<CardResponse> searchUserCards(Long userId, String lastFour, int page, int size) {
-        validatePagination(page, size);
+    public CardStatementResponse getCardStatement(Long userId, Long cardId, YearMonth month) {
+        Card card = cardRepository.findByIdAndOwnerId(cardId, userId)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта не найдена или не принадлежит пользователю"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new EntityNotFoundException("Пользователь не найден: " + userId));
+        List<CardMonthlyRollup> rollups = rollupRepository.findAllByCardIdAndStatementMonth(cardId, month);
+
+        return CardStatementResponse.builder()
+                .cardId(card.getId())
+                .maskedCardNumber(maskCardNumber(card.getLastFour()))
+                .month(month)
+                .incomingAmount(rollups.stream().map(CardMonthlyRollup::getIncomingAmount)
+                        .reduce(BigDecimal.ZERO, BigDecimal::add))
+                .incomingCount(rollups.stream().mapToLong(CardMonthlyRollup::getIncomingCount).sum())
+                .outgoingAmount(rollups.stream().map(CardMonthlyRollup::getOutgoingAmount)
+                        .reduce(BigDecimal.ZERO, BigDecimal::add))
+                .outgoingCount(rollups.stream().mapToLong(CardMonthlyRollup::getOutgoingCount).sum())
+                .currency("KZT")
+                .build();
+    }
 
-        Pageable pageable = PageRequest.of(page, size);
-        Page<Card> cardsPage;
+    /**
+     * История карты по курсору. Списания и зачисления берутся отдельными запросами по size + 1 строке
+     * и сливаются по (createdAt, id) — так каждый запрос читает свой индекс уже в нужном порядке
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public CursorPageResponse<CardTransactionResponse> getCardTransactions(Long userId, Long cardId,
+                                                                           String cursor, int size) {
+        validatePagination(0, size);
+        cardRepository.findByIdAndOwnerId(cardId, userId)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта не найдена или не принадлежит пользователю"));
 
-        if (lastFour != null && !lastFour.isEmpty()) {
-            cardsPage = cardRepository.findByOwnerAndLastFourContaining(user, lastFour, pageable);
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<CardTransactionResponse> outgoing;
+        List<CardTransactionResponse> incoming;
+        TransactionCursor position = null;
+        if (cursor == null || cursor.isEmpty()) {
+            outgoing = transactionRepository.findOutgoingByCardId(cardId, limit);
+            incoming = transactionRepository.findIncomingByCardId(cardId, limit);
         } else {
-            cardsPage = cardRepository.findByOwner(user, pageable);
+            position = TransactionCursor.decode(cursor);
+            outgoing = transactionRepository.findOutgoingByCardIdAfter(
+                    cardId, position.createdAt(), position.id(), limit);
+            incoming = transactionRepository.findIncomingByCardIdAfter(
+                    cardId, position.createdAt(), position.id(), limit);
         }
 
-        return mapToPageResponse(cardsPage);
+        List<CardTransactionResponse> rows = mergeNewestFirst(outgoing, incoming, size + 1);
+        Instant oldestLoaded = rows.size() > size ? rows.get(size).getCreatedAt() : null;
+        if (transactionArchive.isReachedBy(null, null, oldestLoaded)) {
+            rows = mergeNewestFirst(rows, findArchived(cardId, position, size + 1), size + 1);
+        }
+
+        boolean hasNext = rows.size() > size;
+        List<CardTransactionResponse> page = hasNext ? rows.subList(0, size) : rows;
+        CardTransactionResponse last = page.isEmpty() ? null : page.get(page.size() - 1);
+
+        return CursorPageResponse.<CardTransactionResponse>builder()
+                .content(page)
+                .size(page.size())
+                .nextCursor(hasNext ? new TransactionCursor(last.getCreatedAt(), last.getId()).encode() : null)
+                .hasNext(hasNext)
+                .build();
+    }
+
+    /**
+     * Поиск по последним цифрам — совпадение с начала (4 цифры — точное), по индексу (owner_id, last_four).
+     * С app.cards.search.substring=true — вхождение в любом месте (на PostgreSQL по триграммному индексу)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public PageResponse<CardResponse> searchUserCards(Long userId, String lastFour, int page, int size,
+                                                      PageTotal pageTotal) {
+        validatePagination(page, size);
+
+        Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
+        if (lastFour == null || lastFour.isEmpty()) {
+            return getUserCards(userId, page, size, pageTotal);
+        }
+        String pattern = lastFourPattern(lastFour);
+        if (pageTotal == PageTotal.NONE) {
+            return mapToSliceResponse(cardRepository.findSliceByOwnerIdAndLastFourLike(userId, pattern, pageable));
+        }
+
+        return mapToPageResponse(cardRepository.findByOwnerIdAndLastFourLike(userId, pattern, pageable));
     }
 
     @Override
     @Transactional(readOnly = true)
-    public PageResponse<CardResponse> getAllCards(int page, int size) {
+    public PageResponse<CardResponse> searchAllCards(String lastFour, int page, int size, PageTotal pageTotal) {
         validatePagination(page, size);
+        if (lastFour == null || lastFour.isEmpty()) {
+            throw new IllegalArgumentException("Укажите последние цифры карты");
+        }
 
         Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
+        String pattern = lastFourPattern(lastFour);
+        if (pageTotal == PageTotal.NONE) {
+            return mapToSliceResponse(cardRepository.findSliceByLastFourLike(pattern, pageable));
+        }
+
+        return mapToPageResponse(cardRepository.findByLastFourLike(pattern, pageable));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public PageResponse<CardResponse> getAllCards(int page, int size, PageTotal pageTotal) {
+        validatePagination(page, size);
+
+        Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
+        if (pageTotal == PageTotal.NONE) {
+            return mapToSliceResponse(cardRepository.findSliceBy(pageable));
+        }
+        if (pageTotal == PageTotal.ESTIMATED) {
+            OptionalLong estimate = tableRowEstimator.estimate("cards");
+            if (estimate.isPresent()) {
+                return withEstimatedTotal(cardRepository.findSliceBy(pageable), estimate.getAsLong());
+            }
+        }
         Page<Card> cardsPage = cardRepository.findAll(pageable);
 
         return mapToPageResponse(cardsPage);
@@ -179,8 +350,34 @@ public class CardServiceImpl implements CardService {
         Card card = cardRepository.findById(cardId)
                 .orElseThrow(() -> new EntityNotFoundException("Карта не найдена: " + cardId));
 
-        card.setBalance(card.getBalance().add(amount));
-        cardRepository.save(card);
+        // Пополнения входят в историю баланса, по которой сверяются карты
+        CardTopUp topUp = cardTopUpRepository.save(CardTopUp.builder()
+                .cardId(cardId)
+                .amount(amount)
+                .createdAt(Instant.now())
+                .build());
+
+        if (cardBalanceManager.isSharded(card)) {
+            // Зачисление в одну из частей баланса без блокировки строки карты, итоги — в ту же часть
+            int creditShard = cardBalanceManager.credit(card, amount);
+            cardMonthlyRollups.recordTopUp(cardId, creditShard, amount, topUp.getCreatedAt());
+            return;
+        }
+
+        // Атомарный UPDATE вместо read-modify-write: параллельные пополнения не теряются
+        cardRepository.creditBalance(cardId, amount);
+        cardMonthlyRollups.recordTopUp(cardId, 0, amount, topUp.getCreatedAt());
+    }
+
+    @Override
+    public CardResponse configureBalanceShards(Long cardId, int shards) {
+        Card card = cardRepository.findByIdWithLock(cardId)
+                .orElseThrow(() -> new EntityNotFoundException("Карта не найдена: " + cardId));
+
+        cardBalanceManager.reshard(card, shards);
+        Card savedCard = cardRepository.save(card);
+
+        return toResponse(savedCard);
     }
 
     // Helper methods
@@ -206,22 +403,120 @@ public class CardServiceImpl implements CardService {
         }
     }
 
+    // Строка, перенесенная в архив между чтением БД и архива, встречается в обоих списках — берется один раз
+    private List<CardTransactionResponse> mergeNewestFirst(List<CardTransactionResponse> a,
+                                                           List<CardTransactionResponse> b,
+                                                           int limit) {
+        // id сравниваются без знака, как uuid в БД, иначе порядок при равном createdAt разойдется с курсором
+        Comparator<CardTransactionResponse> newestFirst = Comparator
+                .comparing((CardTransactionResponse t) -> new TransactionCursor(t.getCreatedAt(), t.getId()),
+                        TransactionCursor.ORDER)
+                .reversed();
+        List<CardTransactionResponse> merged = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < limit && (i < a.size() || j < b.size())) {
+            int order = j >= b.size() ? -1 : i >= a.size() ? 1 : newestFirst.compare(a.get(i), b.get(j));
+            if (order == 0) {
+                j++;
+            }
+            merged.add(order <= 0 ? a.get(i++) : b.get(j++));
+        }
+        return merged;
+    }
+
+    // Изменение баланса карты по архивным переводам за [from, at] (граница at включительно, как в sumIncoming)
+    private BigDecimal sumArchived(Long cardId, Instant from, Instant at) {
+        BigDecimal[] sum = {BigDecimal.ZERO};
+        transactionArchive.forEach(TransactionArchive.CardFilter.of(List.of(cardId)), from, at.plusNanos(1), row ->
+                sum[0] = row.toCardId() == cardId ? sum[0].add(row.amount()) : sum[0].subtract(row.amount()));
+        return sum[0];
+    }
+
+    /**
+     * Архивные операции карты в виде строк истории; последние цифры вторых карт читаются одним запросом
+     */
+    private List<CardTransactionResponse> findArchived(Long cardId, TransactionCursor after, int limit) {
+        List<TransactionArchive.Row> rows = transactionArchive.findNewestFirst(
+                TransactionArchive.CardFilter.of(List.of(cardId)), null, null, after, limit);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, String> lastFours = cardRepository.findAllById(rows.stream()
+                        .map(row -> row.fromCardId() == cardId ? row.toCardId() : row.fromCardId())
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Card::getId, Card::getLastFour));
+
+        return rows.stream()
+                .map(row -> {
+                    boolean outgoing = row.fromCardId() == cardId;
+                    long counterpart = outgoing ? row.toCardId() : row.fromCardId();
+                    return new CardTransactionResponse(row.id(), row.amount(), row.createdAt(),
+                            outgoing ? "OUTGOING" : "INCOMING", counterpart, lastFours.get(counterpart));
+                })
+                .toList();
+    }
+
+    // Только цифры, поэтому экранировать символы LIKE не нужно
+    private String lastFourPattern(String lastFour) {
+        if (!LAST_FOUR_QUERY.matcher(lastFour).matches()) {
+            throw new IllegalArgumentException("Для поиска укажите от 1 до 4 цифр");
+        }
+        return substringSearch ? "%" + lastFour + "%" : lastFour + "%";
+    }
+
     private String maskCardNumber(String lastFour) {
         return "**** **** **** " + lastFour;
     }
 
+    private CardResponse toResponse(Card card) {
+        return cardMapper.toResponse(card, cardBalanceManager.totalBalance(card));
+    }
+
+    // Владельцы загружены вместе с картами (@EntityGraph в CardRepository), части балансов — одним запросом
+    private List<CardResponse> toResponses(List<Card> cards) {
+        Map<Long, BigDecimal> balances = cardBalanceManager.totalBalances(cards);
+        return cards.stream()
+                .map(card -> cardMapper.toResponse(card, balances.get(card.getId())))
+                .toList();
+    }
+
     private PageResponse<CardResponse> mapToPageResponse(Page<Card> cardsPage) {
         return PageResponse.<CardResponse>builder()
-                .content(cardsPage.getContent().stream()
-                        .map(cardMapper::toResponse)
-                        .toList())
+                .content(toResponses(cardsPage.getContent()))
                 .pageNumber(cardsPage.getNumber())
                 .pageSize(cardsPage.getSize())
                 .totalElements(cardsPage.getTotalElements())
                 .totalPages(cardsPage.getTotalPages())
                 .first(cardsPage.isFirst())
                 .last(cardsPage.isLast())
+                .hasNext(cardsPage.hasNext())
                 .empty(cardsPage.isEmpty())
                 .build();
     }
+
+    private PageResponse<CardResponse> mapToSliceResponse(Slice<Card> cardsSlice) {
+        return PageResponse.<CardResponse>builder()
+                .content(toResponses(cardsSlice.getContent()))
+                .pageNumber(cardsSlice.getNumber())
+                .pageSize(cardsSlice.getSize())
+                .first(cardsSlice.isFirst())
+                .last(cardsSlice.isLast())
+                .hasNext(cardsSlice.hasNext())
+                .empty(cardsSlice.isEmpty())
+                .build();
+    }
+
+    // Оценка может отставать от таблицы: число элементов не меньше уже прочитанных, а на последней странице точное
+    private PageResponse<CardResponse> withEstimatedTotal(Slice<Card> cardsSlice, long estimate) {
+        long read = cardsSlice.getPageable().getOffset() + cardsSlice.getNumberOfElements();
+        long total = cardsSlice.hasNext() ? Math.max(estimate, read + 1) : read;
+
+        PageResponse<CardResponse> response = mapToSliceResponse(cardsSlice);
+        response.setTotalElements(total);
+        response.setTotalPages((int) Math.min(Integer.MAX_VALUE, (total + cardsSlice.getSize() - 1) / cardsSlice.getSize()));
+        response.setTotalEstimated(cardsSlice.hasNext());
+        return response;
+    }
 }
\ No newline at end of file
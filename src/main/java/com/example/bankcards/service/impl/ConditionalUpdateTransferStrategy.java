@@ -0,0 +1,147 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.service.TransferMode;
+import com.example.bankcards.service.TransferStrategy;
+import com.example.bankcards.util.TransactionMapper;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Перевод условным UPDATE: проверки владельца, статуса и баланса выполняет сама БД, списание и зачисление —
+ * один UPDATE обеих строк, который возвращает последние цифры карт для записи и ответа (RETURNING
+ * на PostgreSQL, FINAL TABLE на H2). Карты не читаются, если обе строки изменились. Строки блокируются
+ * по возрастанию id (подзапрос FOR UPDATE с ORDER BY), как и в пессимистическом режиме.
+ * Строка, не прошедшая условие, читается отдельно: чтобы вернуть причину отказа, перенести части баланса
+ * отправителя или зачислить средства в часть баланса получателя
+ */
+@Component
+@RequiredArgsConstructor
+@Transactional
+public class ConditionalUpdateTransferStrategy implements TransferStrategy {
+
+    // Параметры: from, amount, amount, from, to, owner, status, from, amount, to
+    private static final String POSTGRES_TRANSFER_SQL = """
+            UPDATE cards c
+            SET balance = CASE WHEN c.id = ? THEN c.balance - ? ELSE c.balance + ? END, version = c.version + 1
+            FROM (SELECT id FROM cards WHERE id IN (?, ?) ORDER BY id FOR UPDATE) locked
+            WHERE c.id = locked.id AND c.owner_id = ? AND c.status = ?
+              AND (c.id <> ? OR c.balance >= ?) AND (c.id <> ? OR c.balance_shards = 0)
+            RETURNING c.id, c.last_four
+            """;
+
+    private static final String H2_TRANSFER_SQL = """
+            SELECT id, last_four FROM FINAL TABLE (
+                UPDATE cards
+                SET balance = CASE WHEN id = ? THEN balance - ? ELSE balance + ? END, version = version + 1
+                WHERE id IN (?, ?) AND owner_id = ? AND status = ?
+                  AND (id <> ? OR balance >= ?) AND (id <> ? OR balance_shards = 0))
+            """;
+
+    private final CardRepository cardRepository;
+    private final TransferSupport transferSupport;
+    private final CardBalanceManager cardBalanceManager;
+    private final TransactionMapper transactionMapper;
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    @Override
+    public TransferMode getMode() {
+        return TransferMode.CONDITIONAL_UPDATE;
+    }
+
+    @Override
+    public TransactionResponse transfer(Long userId, TransferRequest request,
+                                        Consumer<TransactionResponse> onRecorded) {
+        Long fromCardId = request.getFromCardId();
+        Long toCardId = request.getToCardId();
+        BigDecimal amount = request.getAmount();
+
+        Map<Long, String> lastFours = new HashMap<>();
+        jdbcTemplate.query(isPostgres() ? POSTGRES_TRANSFER_SQL : H2_TRANSFER_SQL,
+                (RowCallbackHandler) rs -> lastFours.put(rs.getLong("id"), rs.getString("last_four")),
+                fromCardId, amount, amount, fromCardId, toCardId, userId, CardStatus.ACTIVE.name(),
+                fromCardId, amount, toCardId);
+
+        String fromLastFour = lastFours.get(fromCardId);
+        if (fromLastFour == null) {
+            fromLastFour = debit(userId, fromCardId, amount).getLastFour();
+        }
+        String toLastFour = lastFours.get(toCardId);
+        int creditShard = 0;
+        if (toLastFour == null) {
+            Card toCard = cardRepository.findById(toCardId)
+                    .orElseThrow(() -> new EntityNotFoundException("Карта получателя не найдена: " + toCardId));
+            creditShard = credit(toCard, userId, amount);
+            toLastFour = toCard.getLastFour();
+        }
+
+        // Обе карты принадлежат userId: это проверил UPDATE или rejectTransfer
+        Transactions savedTransaction = transferSupport.record(
+                cardRepository.getReferenceById(fromCardId), userId,
+                cardRepository.getReferenceById(toCardId), userId, amount, creditShard);
+
+        TransactionResponse response = transactionMapper.toResponse(savedTransaction, fromLastFour, toLastFour);
+        onRecorded.accept(response);
+        return response;
+    }
+
+    /**
+     * Строка отправителя не прошла условие — блокируем ее, чтобы причина и перенос частей баланса
+     * видели актуальное состояние
+     */
+    private Card debit(Long userId, Long cardId, BigDecimal amount) {
+        Card card = cardRepository.findByIdWithLock(cardId)
+                .orElseThrow(() -> new EntityNotFoundException("Карта отправителя не найдена: " + cardId));
+        rejectTransfer(card, userId, "отправителя");
+        cardBalanceManager.ensureAvailable(card, amount);
+        transferSupport.validateFunds(card, amount);
+        card.setBalance(card.getBalance().subtract(amount));
+        return card;
+    }
+
+    private int credit(Card card, Long userId, BigDecimal amount) {
+        rejectTransfer(card, userId, "получателя");
+        if (!cardBalanceManager.isSharded(card)) {
+            throw new IllegalStateException("Не удалось зачислить средства на карту: " + card.getId());
+        }
+        // Шардированный баланс: зачисление в одну из частей
+        return cardBalanceManager.credit(card, amount);
+    }
+
+    /**
+     * UPDATE не изменил строку — выясняем причину, чтобы вернуть ту же ошибку, что и пессимистический режим
+     */
+    private void rejectTransfer(Card card, Long userId, String cardRole) {
+        if (!card.getOwner().getId().equals(userId)) {
+            throw new IllegalArgumentException("Обе карты должны принадлежать вам");
+        }
+        transferSupport.validateCardStatus(card, cardRole);
+    }
+
+    private boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            result = jdbcTemplate.execute((ConnectionCallback<Boolean>) con ->
+                    "PostgreSQL".equals(con.getMetaData().getDatabaseProductName()));
+            postgres = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.IdempotencyRecord;
+import com.example.bankcards.entity.IdempotencyStatus;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.repository.IdempotencyRecordRepository;
+import com.example.bankcards.service.IdempotencyService;
+import com.example.bankcards.util.ExpiringLruCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Идемпотентное выполнение переводов.
+ * Повтор с тем же ключом отвечает сохраненным результатом из LRU-кэша или таблицы idempotency_keys,
+ * не обращаясь к строкам cards. Одновременные запросы с одним ключом на этом узле
+ * объединяются в одно выполнение, между узлами дубли отсекает уникальный индекс (user_id, idempotency_key).
+ * <p>
+ * Ключ захватывается записью IN_PROGRESS, а ответ сохраняется в транзакции самого перевода:
+ * перевод без сохраненного ответа зафиксирован быть не может. Поэтому IN_PROGRESS старше in-progress-timeout
+ * означает, что перевод не выполнен (узел упал до фиксации), и такой захват снимается следующим запросом
+ */
+@Slf4j
+@Service
+public class IdempotencyServiceImpl implements IdempotencyService {
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration retention;
+    private final Duration inProgressTimeout;
+    private final ExpiringLruCache<String, StoredResponse> cache;
+    private final ConcurrentMap<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyServiceImpl(
+            IdempotencyRecordRepository idempotencyRecordRepository,
+            ObjectMapper objectMapper,
+            @Value("${app.idempotency.cache.max-size:10000}") int cacheMaxSize,
+            @Value("${app.idempotency.retention:24h}") Duration retention,
+            @Value("${app.idempotency.in-progress-timeout:5m}") Duration inProgressTimeout
+    ) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.objectMapper = objectMapper;
+        this.retention = retention;
+        this.inProgressTimeout = inProgressTimeout;
+        this.cache = new ExpiringLruCache<>(cacheMaxSize, retention);
+    }
+
+    @Override
+    public TransactionResponse executeTransfer(Long userId, String idempotencyKey, TransferRequest request,
+                                               Function<Consumer<TransactionResponse>, TransactionResponse> transfer) {
+        String cacheKey = userId + ":" + idempotencyKey;
+        String requestHash = hash(request);
+
+        StoredResponse cached = cache.get(cacheKey);
+        if (cached != null) {
+            return cached.matching(requestHash);
+        }
+
+        CompletableFuture<StoredResponse> execution = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(cacheKey, execution);
+        if (running != null) {
+            // Такой же запрос уже выполняется на этом узле — ждем его результат
+            try {
+                return running.join().matching(requestHash);
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+
+        try {
+            StoredResponse result = executeOnce(userId, idempotencyKey, requestHash, transfer);
+            cache.put(cacheKey, result);
+            execution.complete(result);
+            return result.matching(requestHash);
+        } catch (RuntimeException e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, execution);
+        }
+    }
+
+    /**
+     * Удаляет ключи старше срока хранения
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval:PT1H}")
+    public void purgeExpiredKeys() {
+        int deleted = idempotencyRecordRepository.deleteCreatedBefore(Instant.now().minus(retention));
+        if (deleted > 0) {
+            log.debug("Удалено {} устаревших ключей идемпотентности", deleted);
+        }
+    }
+
+    // Helper methods
+
+    private StoredResponse executeOnce(Long userId, String idempotencyKey, String requestHash,
+                                       Function<Consumer<TransactionResponse>, TransactionResponse> transfer) {
+        IdempotencyRecord existing = idempotencyRecordRepository
+                .findByUserIdAndIdempotencyKey(userId, idempotencyKey)
+                .orElse(null);
+        if (existing != null && !releaseAbandoned(existing)) {
+            return fromRecord(existing);
+        }
+
+        IdempotencyRecord claim;
+        try {
+            claim = idempotencyRecordRepository.saveAndFlush(IdempotencyRecord.builder()
+                    .userId(userId)
+                    .idempotencyKey(idempotencyKey)
+                    .requestHash(requestHash)
+                    .status(IdempotencyStatus.IN_PROGRESS)
+                    .createdAt(Instant.now())
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            // Ключ занят параллельным запросом на другом узле
+            return idempotencyRecordRepository.findByUserIdAndIdempotencyKey(userId, idempotencyKey)
+                    .map(this::fromRecord)
+                    .orElseThrow(() -> e);
+        }
+
+        Long claimId = claim.getId();
+        TransactionResponse response;
+        try {
+            response = transfer.apply(recorded -> complete(claimId, recorded));
+        } catch (RuntimeException e) {
+            // Перевод не выполнен — освобождаем ключ, чтобы клиент мог повторить запрос.
+            // Если перевод все же зафиксирован (ошибка пришла после фиксации), ключ уже COMPLETED и остается
+            idempotencyRecordRepository.deleteByIdAndStatus(claimId, IdempotencyStatus.IN_PROGRESS);
+            throw e;
+        }
+
+        return new StoredResponse(requestHash, response);
+    }
+
+    /**
+     * Сохраняет ответ в транзакции перевода. Захват, снятый как брошенный, отменяет перевод
+     */
+    private void complete(Long claimId, TransactionResponse response) {
+        IdempotencyRecord claim = idempotencyRecordRepository.findByIdWithLock(claimId)
+                .filter(record -> record.getStatus() == IdempotencyStatus.IN_PROGRESS)
+                .orElseThrow(() -> new BusinessException(
+                        HttpStatus.CONFLICT,
+                        "IDEMPOTENCY_REQUEST_EXPIRED",
+                        "Запрос с этим ключом идемпотентности выполнялся слишком долго, перевод отменен"
+                ));
+        claim.setStatus(IdempotencyStatus.COMPLETED);
+        claim.setResponseBody(write(response));
+        idempotencyRecordRepository.save(claim);
+    }
+
+    /**
+     * Снимает захват ключа, перевод по которому не завершился за in-progress-timeout.
+     * Возвращает true, если ключ освобожден и запрос можно выполнить заново
+     */
+    private boolean releaseAbandoned(IdempotencyRecord record) {
+        Instant threshold = Instant.now().minus(inProgressTimeout);
+        if (record.getStatus() != IdempotencyStatus.IN_PROGRESS || !record.getCreatedAt().isBefore(threshold)) {
+            return false;
+        }
+        // Если ключ тем временем завершен или снят другим запросом, решение примет повторный захват
+        if (idempotencyRecordRepository.deleteByIdAndStatusCreatedBefore(
+                record.getId(), IdempotencyStatus.IN_PROGRESS, threshold) > 0) {
+            log.warn("Снят незавершенный захват ключа идемпотентности {} пользователя {}",
+                    record.getIdempotencyKey(), record.getUserId());
+        }
+        return true;
+    }
+
+    private StoredResponse fromRecord(IdempotencyRecord record) {
+        if (record.getStatus() != IdempotencyStatus.COMPLETED) {
+            throw new BusinessException(
+                    HttpStatus.CONFLICT,
+                    "IDEMPOTENCY_REQUEST_IN_PROGRESS",
+                    "Запрос с этим ключом идемпотентности еще выполняется"
+            );
+        }
+        return new StoredResponse(record.getRequestHash(), read(record.getResponseBody()));
+    }
+
+    private String hash(TransferRequest request) {
+        String canonical = request.getFromCardId() + "|" + request.getToCardId() + "|"
+                + request.getAmount().stripTrailingZeros().toPlainString();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private String write(TransactionResponse response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сохранить ответ", e);
+        }
+    }
+
+    private TransactionResponse read(String body) {
+        try {
+            return objectMapper.readValue(body, TransactionResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось прочитать сохраненный ответ", e);
+        }
+    }
+
+    private record StoredResponse(String requestHash, TransactionResponse response) {
+
+        TransactionResponse matching(String requestHash) {
+            if (!this.requestHash.equals(requestHash)) {
+                throw new BusinessException(
+                        HttpStatus.UNPROCESSABLE_ENTITY,
+                        "IDEMPOTENCY_KEY_REUSED",
+                        "Ключ идемпотентности уже использован для другого запроса"
+                );
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.entity.ReconciliationMismatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сверка одного диапазона id карт. Пополнения, переводы и балансы читаются потоком
+ * с фиксированным fetch size в одном снимке (REPEATABLE READ), суммы складываются в памяти по картам.
+ * Переводы, перенесенные в архив, суммируются для всех диапазонов одним проходом до сверки (scanArchive);
+ * сегменты, зарегистрированные после прохода и видимые в снимке диапазона, дочитываются при сверке
+ */
+@Component
+public class LedgerRangeReconciler {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final TransactionArchive transactionArchive;
+
+    public LedgerRangeReconciler(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            TransactionArchive transactionArchive,
+            @Value("${app.reconciliation.fetch-size:1000}") int fetchSize
+    ) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setReadOnly(true);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionArchive = transactionArchive;
+    }
+
+    /**
+     * Изменения балансов карт по архивным переводам для всех диапазонов сверки за один проход по архиву
+     */
+    public ArchiveRangeScan<Map<Long, BigDecimal>> scanArchive(List<long[]> ranges, long rangeSize) {
+        return ArchiveRangeScan.scan(transactionArchive, ranges, rangeSize, range -> new HashMap<>(),
+                (expected, range, row) -> addArchived(expected, range[0], range[1], row));
+    }
+
+    public RangeResult reconcile(Long runId, long fromCardId, long toCardId,
+                                 ArchiveRangeScan<Map<Long, BigDecimal>> archived) {
+        return snapshotTemplate.execute(status -> {
+            Map<Long, BigDecimal> expected = archived.take(new long[]{fromCardId, toCardId});
+
+            jdbcTemplate.query(
+                    "SELECT card_id, amount FROM card_top_ups WHERE card_id BETWEEN ? AND ?",
+                    rs -> {
+                        expected.merge(rs.getLong(1), rs.getBigDecimal(2), BigDecimal::add);
+                    },
+                    fromCardId, toCardId);
+
+            jdbcTemplate.query(
+                    "SELECT from_card_id, to_card_id, amount FROM transactions "
+                            + "WHERE from_card_id BETWEEN ? AND ? OR to_card_id BETWEEN ? AND ?",
+                    rs -> {
+                        long from = rs.getLong(1);
+                        long to = rs.getLong(2);
+                        BigDecimal amount = rs.getBigDecimal(3);
+                        if (from >= fromCardId && from <= toCardId) {
+                            expected.merge(from, amount.negate(), BigDecimal::add);
+                        }
+                        if (to >= fromCardId && to <= toCardId) {
+                            expected.merge(to, amount, BigDecimal::add);
+                        }
+                    },
+                    fromCardId, toCardId, fromCardId, toCardId);
+
+            transactionArchive.forEachAfter(archived.lastSegmentId(),
+                    TransactionArchive.CardFilter.range(fromCardId, toCardId),
+                    row -> addArchived(expected, fromCardId, toCardId, row));
+
+            Map<Long, BigDecimal> shardBalances = new HashMap<>();
+            jdbcTemplate.query(
+                    "SELECT card_id, balance FROM card_balance_shards WHERE card_id BETWEEN ? AND ?",
+                    rs -> {
+                        shardBalances.merge(rs.getLong(1), rs.getBigDecimal(2), BigDecimal::add);
+                    },
+                    fromCardId, toCardId);
+
+            List<ReconciliationMismatch> mismatches = new ArrayList<>();
+            long[] cardsChecked = {0};
+            jdbcTemplate.query(
+                    "SELECT id, balance FROM cards WHERE id BETWEEN ? AND ?",
+                    rs -> {
+                        long cardId = rs.getLong(1);
+                        BigDecimal actual = rs.getBigDecimal(2)
+                                .add(shardBalances.getOrDefault(cardId, BigDecimal.ZERO));
+                        BigDecimal expectedBalance = expected.getOrDefault(cardId, BigDecimal.ZERO);
+                        if (actual.compareTo(expectedBalance) != 0) {
+                            mismatches.add(ReconciliationMismatch.builder()
+                                    .runId(runId)
+                                    .cardId(cardId)
+                                    .actualBalance(actual)
+                                    .expectedBalance(expectedBalance)
+                                    .build());
+                        }
+                        cardsChecked[0]++;
+                    },
+                    fromCardId, toCardId);
+
+            return new RangeResult(cardsChecked[0], mismatches);
+        });
+    }
+
+    // Helper methods
+
+    private static void addArchived(Map<Long, BigDecimal> expected, long fromCardId, long toCardId,
+                                    TransactionArchive.Row row) {
+        if (row.fromCardId() >= fromCardId && row.fromCardId() <= toCardId) {
+            expected.merge(row.fromCardId(), row.amount().negate(), BigDecimal::add);
+        }
+        if (row.toCardId() >= fromCardId && row.toCardId() <= toCardId) {
+            expected.merge(row.toCardId(), row.amount(), BigDecimal::add);
+        }
+    }
+
+    public record RangeResult(long cardsChecked, List<ReconciliationMismatch> mismatches) {
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.service.TransferMode;
+import com.example.bankcards.service.TransferStrategy;
+import com.example.bankcards.util.TransactionMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Перевод с оптимистической блокировкой: карты читаются без FOR UPDATE,
+ * а при записи Hibernate проверяет версию строки. При конфликте вся попытка
+ * откатывается и повторяется в новой транзакции с экспоненциальной задержкой и джиттером
+ */
+@Component
+public class OptimisticTransferStrategy implements TransferStrategy {
+
+    private final CardRepository cardRepository;
+    private final TransferSupport transferSupport;
+    private final CardBalanceManager cardBalanceManager;
+    private final TransactionMapper transactionMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final Counter retryCounter;
+    private final Counter exhaustedCounter;
+
+    public OptimisticTransferStrategy(
+            CardRepository cardRepository,
+            TransferSupport transferSupport,
+            CardBalanceManager cardBalanceManager,
+            TransactionMapper transactionMapper,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${app.transfer.optimistic.max-attempts:5}") int maxAttempts,
+            @Value("${app.transfer.optimistic.backoff-ms:10}") long backoffMillis,
+            @Value("${app.transfer.optimistic.max-backoff-ms:200}") long maxBackoffMillis
+    ) {
+        this.cardRepository = cardRepository;
+        this.transferSupport = transferSupport;
+        this.cardBalanceManager = cardBalanceManager;
+        this.transactionMapper = transactionMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryCounter = Counter.builder("bankcards.transfer.optimistic.retries")
+                .description("Повторы перевода после конфликта версий")
+                .register(meterRegistry);
+        this.exhaustedCounter = Counter.builder("bankcards.transfer.optimistic.exhausted")
+                .description("Переводы, отклоненные после исчерпания повторов")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public TransferMode getMode() {
+        return TransferMode.OPTIMISTIC;
+    }
+
+    @Override
+    public TransactionResponse transfer(Long userId, TransferRequest request,
+                                        Consumer<TransactionResponse> onRecorded) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> attemptTransfer(userId, request, onRecorded));
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    exhaustedCounter.increment();
+                    throw new BusinessException(
+                            HttpStatus.CONFLICT,
+                            "TRANSFER_CONFLICT",
+                            "Карта одновременно изменяется другой операцией, повторите перевод позже"
+                    );
+                }
+                retryCounter.increment();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private TransactionResponse attemptTransfer(Long userId, TransferRequest request,
+                                                Consumer<TransactionResponse> onRecorded) {
+        Map<Long, Card> cards = cardRepository
+                .findAllById(List.of(request.getFromCardId(), request.getToCardId()))
+                .stream()
+                .collect(Collectors.toMap(Card::getId, Function.identity()));
+
+        Card fromCard = Optional.ofNullable(cards.get(request.getFromCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта отправителя не найдена: " + request.getFromCardId()));
+
+        Card toCard = Optional.ofNullable(cards.get(request.getToCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта получателя не найдена: " + request.getToCardId()));
+
+        transferSupport.validateOwnership(fromCard, toCard, userId);
+        transferSupport.validateCardStatus(fromCard, "отправителя");
+        transferSupport.validateCardStatus(toCard, "получателя");
+        cardBalanceManager.ensureAvailable(fromCard, request.getAmount());
+        transferSupport.validateFunds(fromCard, request.getAmount());
+
+        fromCard.setBalance(fromCard.getBalance().subtract(request.getAmount()));
+        int creditShard = cardBalanceManager.credit(toCard, request.getAmount());
+
+        Transactions savedTransaction = transferSupport.record(fromCard, toCard, request.getAmount(), creditShard);
+
+        // Проверка версий выполняется здесь, чтобы конфликт пришел как OptimisticLockingFailureException
+        cardRepository.flush();
+
+        TransactionResponse response = transactionMapper.toResponse(savedTransaction);
+        onRecorded.accept(response);
+        return response;
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Перевод прерван", e);
+        }
+    }
+}
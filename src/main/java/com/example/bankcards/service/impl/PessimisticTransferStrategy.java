@@ -0,0 +1,78 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.service.TransferMode;
+import com.example.bankcards.service.TransferStrategy;
+import com.example.bankcards.util.TransactionMapper;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Перевод через сущности: обе карты блокируются FOR UPDATE, баланс меняется в Java
+ */
+@Component
+@RequiredArgsConstructor
+@Transactional
+public class PessimisticTransferStrategy implements TransferStrategy {
+
+    private final CardRepository cardRepository;
+    private final TransferSupport transferSupport;
+    private final CardBalanceManager cardBalanceManager;
+    private final TransactionMapper transactionMapper;
+
+    @Override
+    public TransferMode getMode() {
+        return TransferMode.PESSIMISTIC;
+    }
+
+    @Override
+    public TransactionResponse transfer(Long userId, TransferRequest request,
+                                        Consumer<TransactionResponse> onRecorded) {
+        // Получаем обе карты с блокировкой одним запросом (строки блокируются по возрастанию id)
+        Map<Long, Card> lockedCards = cardRepository
+                .findAllForTransferWithLock(
+                        List.of(request.getFromCardId(), request.getToCardId()), request.getFromCardId())
+                .stream()
+                .collect(Collectors.toMap(Card::getId, Function.identity()));
+
+        Card fromCard = Optional.ofNullable(lockedCards.get(request.getFromCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта отправителя не найдена: " + request.getFromCardId()));
+
+        // Карта получателя с шардированным балансом не блокируется — читаем ее отдельно
+        Card toCard = Optional.ofNullable(lockedCards.get(request.getToCardId()))
+                .or(() -> cardRepository.findById(request.getToCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта получателя не найдена: " + request.getToCardId()));
+
+        // Проверка собственности, статуса карт и достаточности средств
+        transferSupport.validateOwnership(fromCard, toCard, userId);
+        transferSupport.validateCardStatus(fromCard, "отправителя");
+        transferSupport.validateCardStatus(toCard, "получателя");
+        cardBalanceManager.ensureAvailable(fromCard, request.getAmount());
+        transferSupport.validateFunds(fromCard, request.getAmount());
+
+        // Выполняем перевод
+        fromCard.setBalance(fromCard.getBalance().subtract(request.getAmount()));
+        int creditShard = cardBalanceManager.credit(toCard, request.getAmount());
+
+        Transactions savedTransaction = transferSupport.record(fromCard, toCard, request.getAmount(), creditShard);
+
+        TransactionResponse response = transactionMapper.toResponse(savedTransaction);
+        onRecorded.accept(response);
+        return response;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.response.PageResponse;
+import com.example.bankcards.dto.response.ReconciliationMismatchResponse;
+import com.example.bankcards.dto.response.ReconciliationRunResponse;
+import com.example.bankcards.entity.ReconciliationMismatch;
+import com.example.bankcards.entity.ReconciliationRun;
+import com.example.bankcards.entity.ReconciliationRunStatus;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.repository.ReconciliationMismatchRepository;
+import com.example.bankcards.repository.ReconciliationRunRepository;
+import com.example.bankcards.service.ReconciliationService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сверка балансов карт с историей: пространство id карт делится на диапазоны по range-size,
+ * диапазоны сверяются параллельно в ForkJoinPool (LedgerRangeReconciler), расхождения пишутся
+ * в reconciliation_mismatches, прогресс — в reconciliation_runs после каждого диапазона.
+ * Метрика bankcards.reconciliation.cards.checked дает скорость сверки, ...throughput — карт/с последнего запуска
+ */
+@Slf4j
+@Service
+public class ReconciliationServiceImpl implements ReconciliationService {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final ReconciliationRunRepository runRepository;
+    private final ReconciliationMismatchRepository mismatchRepository;
+    private final LedgerRangeReconciler rangeReconciler;
+    private final JdbcTemplate jdbcTemplate;
+    private final ForkJoinPool pool;
+    private final int rangeSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong lastThroughput = new AtomicLong();
+    private final Counter cardsCounter;
+    private final Counter mismatchesCounter;
+
+    public ReconciliationServiceImpl(
+            ReconciliationRunRepository runRepository,
+            ReconciliationMismatchRepository mismatchRepository,
+            LedgerRangeReconciler rangeReconciler,
+            JdbcTemplate jdbcTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${app.reconciliation.parallelism:4}") int parallelism,
+            @Value("${app.reconciliation.range-size:10000}") int rangeSize
+    ) {
+        this.runRepository = runRepository;
+        this.mismatchRepository = mismatchRepository;
+        this.rangeReconciler = rangeReconciler;
+        this.jdbcTemplate = jdbcTemplate;
+        this.pool = new ForkJoinPool(parallelism);
+        this.rangeSize = rangeSize;
+        this.cardsCounter = Counter.builder("bankcards.reconciliation.cards.checked")
+                .description("Карты, сверенные с историей операций")
+                .register(meterRegistry);
+        this.mismatchesCounter = Counter.builder("bankcards.reconciliation.mismatches")
+                .description("Найденные расхождения баланса с историей")
+                .register(meterRegistry);
+        Gauge.builder("bankcards.reconciliation.throughput", lastThroughput, AtomicLong::get)
+                .description("Скорость последней завершенной сверки, карт/с")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ReconciliationRunResponse startRun() {
+        if (!running.compareAndSet(false, true)) {
+            throw new BusinessException(HttpStatus.CONFLICT, "RECONCILIATION_RUNNING", "Сверка уже выполняется");
+        }
+
+        try {
+            List<long[]> ranges = splitCardIdSpace();
+            ReconciliationRun run = runRepository.save(ReconciliationRun.builder()
+                    .status(ReconciliationRunStatus.RUNNING)
+                    .totalRanges(ranges.size())
+                    .startedAt(Instant.now())
+                    .build());
+
+            pool.execute(() -> execute(run, ranges));
+            return toResponse(run);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    @Scheduled(cron = "${app.reconciliation.cron:-}")
+    public void scheduledRun() {
+        try {
+            ReconciliationRunResponse run = startRun();
+            log.info("Запущена плановая сверка {}", run.getId());
+        } catch (BusinessException e) {
+            log.warn("Плановая сверка пропущена: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public ReconciliationRunResponse getRun(Long runId) {
+        return toResponse(findRun(runId));
+    }
+
+    @Override
+    public PageResponse<ReconciliationMismatchResponse> getMismatches(Long runId, int page, int size) {
+        findRun(runId);
+        Page<ReconciliationMismatch> mismatches = mismatchRepository.findAllByRunId(
+                runId, PageRequest.of(page, size, Sort.by("cardId")));
+
+        return PageResponse.<ReconciliationMismatchResponse>builder()
+                .content(mismatches.getContent().stream()
+                        .map(mismatch -> ReconciliationMismatchResponse.builder()
+                                .cardId(mismatch.getCardId())
+                                .actualBalance(mismatch.getActualBalance())
+                                .expectedBalance(mismatch.getExpectedBalance())
+                                .difference(mismatch.getActualBalance().subtract(mismatch.getExpectedBalance()))
+                                .build())
+                        .toList())
+                .pageNumber(mismatches.getNumber())
+                .pageSize(mismatches.getSize())
+                .totalElements(mismatches.getTotalElements())
+                .totalPages(mismatches.getTotalPages())
+                .first(mismatches.isFirst())
+                .last(mismatches.isLast())
+                .hasNext(mismatches.hasNext())
+                .empty(mismatches.isEmpty())
+                .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // Helper methods
+
+    private void execute(ReconciliationRun run, List<long[]> ranges) {
+        try {
+            // Архив читается один раз для всех диапазонов: каждый сегмент содержит карты всех диапазонов
+            ArchiveRangeScan<Map<Long, BigDecimal>> archived = rangeReconciler.scanArchive(ranges, rangeSize);
+            pool.invoke(new RangeTask(run.getId(), ranges, archived, 0, ranges.size()));
+
+            ReconciliationRun finished = findRun(run.getId());
+            finished.setStatus(ReconciliationRunStatus.COMPLETED);
+            finished.setFinishedAt(Instant.now());
+            runRepository.save(finished);
+
+            long millis = Math.max(Duration.between(finished.getStartedAt(), finished.getFinishedAt()).toMillis(), 1);
+            lastThroughput.set(finished.getCardsChecked() * 1000 / millis);
+            log.info("Сверка {} завершена: {} карт, {} расхождений, {} мс",
+                    run.getId(), finished.getCardsChecked(), finished.getMismatches(), millis);
+        } catch (RuntimeException e) {
+            log.error("Сверка {} завершилась ошибкой", run.getId(), e);
+            ReconciliationRun failed = findRun(run.getId());
+            failed.setStatus(ReconciliationRunStatus.FAILED);
+            failed.setFinishedAt(Instant.now());
+            failed.setError(truncate(e.toString()));
+            runRepository.save(failed);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<long[]> splitCardIdSpace() {
+        Map<String, Object> bounds = jdbcTemplate.queryForMap("SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM cards");
+        List<long[]> ranges = new ArrayList<>();
+        if (bounds.get("min_id") == null) {
+            return ranges;
+        }
+
+        long minId = ((Number) bounds.get("min_id")).longValue();
+        long maxId = ((Number) bounds.get("max_id")).longValue();
+        for (long from = minId; from <= maxId; from += rangeSize) {
+            ranges.add(new long[]{from, Math.min(from + rangeSize - 1, maxId)});
+        }
+        return ranges;
+    }
+
+    private ReconciliationRun findRun(Long runId) {
+        return runRepository.findById(runId)
+                .orElseThrow(() -> new EntityNotFoundException("Сверка не найдена: " + runId));
+    }
+
+    private ReconciliationRunResponse toResponse(ReconciliationRun run) {
+        return ReconciliationRunResponse.builder()
+                .id(run.getId())
+                .status(run.getStatus().name())
+                .totalRanges(run.getTotalRanges())
+                .completedRanges(run.getCompletedRanges())
+                .cardsChecked(run.getCardsChecked())
+                .mismatches(run.getMismatches())
+                .startedAt(run.getStartedAt())
+                .finishedAt(run.getFinishedAt())
+                .error(run.getError())
+                .build();
+    }
+
+    private String truncate(String message) {
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    /**
+     * Делит список диапазонов пополам, пока не останется один диапазон
+     */
+    private class RangeTask extends RecursiveAction {
+
+        private final Long runId;
+        private final List<long[]> ranges;
+        private final ArchiveRangeScan<Map<Long, BigDecimal>> archived;
+        private final int from;
+        private final int to;
+
+        RangeTask(Long runId, List<long[]> ranges, ArchiveRangeScan<Map<Long, BigDecimal>> archived,
+                  int from, int to) {
+            this.runId = runId;
+            this.ranges = ranges;
+            this.archived = archived;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(runId, ranges, archived, from, middle),
+                        new RangeTask(runId, ranges, archived, middle, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+
+            long[] range = ranges.get(from);
+            LedgerRangeReconciler.RangeResult result = rangeReconciler.reconcile(runId, range[0], range[1], archived);
+            if (!result.mismatches().isEmpty()) {
+                mismatchRepository.saveAll(result.mismatches());
+            }
+            runRepository.addRangeProgress(runId, result.cardsChecked(), result.mismatches().size());
+            cardsCounter.increment(result.cardsChecked());
+            mismatchesCounter.increment(result.mismatches().size());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.service.TransferMode;
+import com.example.bankcards.service.TransferStrategy;
+import com.example.bankcards.util.MpscRingBuffer;
+import com.example.bankcards.util.TransactionMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Перевод через однопоточные обработчики. Переводы распределяются по обработчикам по id владельца,
+ * поэтому карты одного пользователя меняет только один поток и запросы не ждут блокировок строк друг друга.
+ * Обработчик забирает из своей очереди накопившиеся переводы (не больше max-batch-size,
+ * ждет не дольше max-batch-delay) и выполняет их одной транзакцией через TransferBatchProcessor,
+ * после чего завершает ожидающие запросы
+ */
+@Slf4j
+@Component
+public class SequencedTransferStrategy implements TransferStrategy {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final TransferBatchProcessor transferBatchProcessor;
+    private final TransactionMapper transactionMapper;
+    private final int shards;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final Duration requestTimeout;
+    private final DistributionSummary batchSizeSummary;
+
+    private volatile Worker[] workers;
+
+    public SequencedTransferStrategy(
+            TransferBatchProcessor transferBatchProcessor,
+            TransactionMapper transactionMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.transfer.sequencer.shards:4}") int shards,
+            @Value("${app.transfer.sequencer.queue-capacity:1024}") int queueCapacity,
+            @Value("${app.transfer.sequencer.max-batch-size:100}") int maxBatchSize,
+            @Value("${app.transfer.sequencer.max-batch-delay:2ms}") Duration maxBatchDelay,
+            @Value("${app.transfer.sequencer.request-timeout:10s}") Duration requestTimeout
+    ) {
+        if (shards <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Число обработчиков и размер пачки должны быть положительными");
+        }
+        this.transferBatchProcessor = transferBatchProcessor;
+        this.transactionMapper = transactionMapper;
+        this.shards = shards;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = maxBatchDelay.toNanos();
+        this.requestTimeout = requestTimeout;
+        this.batchSizeSummary = DistributionSummary.builder("bankcards.transfer.sequencer.batch.size")
+                .description("Число переводов в одной групповой фиксации")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public TransferMode getMode() {
+        return TransferMode.SEQUENCED;
+    }
+
+    @Override
+    public TransactionResponse transfer(Long userId, TransferRequest request,
+                                        Consumer<TransactionResponse> onRecorded) {
+        Worker worker = workers()[Math.floorMod(Long.hashCode(userId), shards)];
+        PendingTransfer pending = new PendingTransfer(
+                new TransferBatchProcessor.Command(userId, request, onRecorded), new CompletableFuture<>());
+
+        if (!worker.queue.offer(pending)) {
+            throw new BusinessException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    "TRANSFER_QUEUE_FULL",
+                    "Очередь переводов переполнена, повторите перевод позже"
+            );
+        }
+        LockSupport.unpark(worker.thread);
+
+        try {
+            return pending.result().get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+            throw new BusinessException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    "TRANSFER_TIMEOUT",
+                    "Перевод не подтвержден вовремя, проверьте историю операций перед повтором"
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Перевод прерван", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Worker[] started = workers;
+        if (started == null) {
+            return;
+        }
+        for (Worker worker : started) {
+            worker.running = false;
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : started) {
+            worker.thread.join(requestTimeout.toMillis());
+        }
+    }
+
+    // Обработчики запускаются при первом переводе, чтобы не держать потоки в других режимах
+    private Worker[] workers() {
+        Worker[] started = workers;
+        if (started != null) {
+            return started;
+        }
+        synchronized (this) {
+            if (workers == null) {
+                Worker[] created = new Worker[shards];
+                for (int i = 0; i < shards; i++) {
+                    created[i] = new Worker(i);
+                    created[i].thread.start();
+                }
+                workers = created;
+            }
+            return workers;
+        }
+    }
+
+    private void commit(List<PendingTransfer> group) {
+        batchSizeSummary.record(group.size());
+        List<TransferBatchProcessor.Outcome> outcomes =
+                transferBatchProcessor.process(group.stream().map(PendingTransfer::command).toList());
+
+        for (int i = 0; i < group.size(); i++) {
+            TransferBatchProcessor.Outcome outcome = outcomes.get(i);
+            CompletableFuture<TransactionResponse> result = group.get(i).result();
+            if (outcome.isSuccess()) {
+                result.complete(transactionMapper.toResponse(outcome.transaction()));
+            } else {
+                result.completeExceptionally(outcome.error());
+            }
+        }
+    }
+
+    private record PendingTransfer(TransferBatchProcessor.Command command,
+                                   CompletableFuture<TransactionResponse> result) {
+    }
+
+    private class Worker implements Runnable {
+
+        private final MpscRingBuffer<PendingTransfer> queue = new MpscRingBuffer<>(queueCapacity);
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Worker(int shard) {
+            this.thread = new Thread(this, "transfer-sequencer-" + shard);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                PendingTransfer first = queue.poll();
+                if (first == null) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                List<PendingTransfer> group = new ArrayList<>();
+                group.add(first);
+                try {
+                    collectGroup(group);
+                    commit(group);
+                } catch (Throwable e) {
+                    // Обработчик шарда не должен останавливаться, в том числе на Error:
+                    // иначе все следующие переводы шарда ждали бы до request-timeout
+                    fail(group, e);
+                }
+            }
+
+            PendingTransfer rest;
+            while ((rest = queue.poll()) != null) {
+                rest.result().completeExceptionally(new BusinessException(
+                        HttpStatus.SERVICE_UNAVAILABLE, "TRANSFER_QUEUE_CLOSED", "Сервис останавливается"));
+            }
+        }
+
+        private void collectGroup(List<PendingTransfer> group) {
+            long deadline = System.nanoTime() + maxBatchDelayNanos;
+            while (group.size() < maxBatchSize) {
+                PendingTransfer next = queue.poll();
+                if (next != null) {
+                    group.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+
+        // Ожидания группы, еще не получившие результат, завершаются ошибкой
+        private void fail(List<PendingTransfer> group, Throwable error) {
+            log.warn("Групповая фиксация {} переводов не удалась", group.size(), error);
+            RuntimeException failure = error instanceof RuntimeException runtime
+                    ? runtime
+                    : new IllegalStateException("Групповая фиксация переводов не удалась", error);
+            group.forEach(pending -> pending.result().completeExceptionally(failure));
+        }
+    }
+}
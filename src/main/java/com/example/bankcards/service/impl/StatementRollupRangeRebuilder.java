@@ -0,0 +1,184 @@
+package com.example.bankcards.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пересборка месячных итогов одного диапазона id карт. Пополнения и переводы читаются потоком в одном снимке
+ * (REPEATABLE READ) и складываются в памяти по (карта, месяц), затем строки итогов диапазона (все части
+ * shard_no) удаляются и вставляются заново в той же транзакции, по одной строке на месяц в часть 0.
+ * Архивные переводы складываются для всех диапазонов одним проходом до пересборки (scanArchive), сегменты, зарегистрированные после прохода, дочитываются в снимке диапазона.
+ * Если операция изменила итоги диапазона после начала снимка, транзакция завершается ошибкой
+ * сериализации или дубликата ключа и диапазон пересобирается заново
+ */
+@Slf4j
+@Component
+public class StatementRollupRangeRebuilder {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO card_monthly_rollups
+                (card_id, statement_month, shard_no, incoming_amount, incoming_count, outgoing_amount, outgoing_count)
+            VALUES (?, ?, 0, ?, ?, ?, ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final TransactionArchive transactionArchive;
+
+    public StatementRollupRangeRebuilder(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            TransactionArchive transactionArchive,
+            @Value("${app.statements.rebuild.fetch-size:1000}") int fetchSize
+    ) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionArchive = transactionArchive;
+    }
+
+    /**
+     * Итоги по архивным переводам для всех диапазонов пересборки за один проход по архиву
+     */
+    public ArchiveRangeScan<RangeTotals> scanArchive(List<long[]> ranges, long rangeSize) {
+        return ArchiveRangeScan.scan(transactionArchive, ranges, rangeSize, range -> new RangeTotals(),
+                (totals, range, row) -> totals.addTransfer(range[0], range[1], row.fromCardId(), row.toCardId(),
+                        row.amount(), row.createdAt()));
+    }
+
+    /**
+     * Пересобирает итоги карт fromCardId..toCardId. Возвращает число записанных строк итогов
+     */
+    public int rebuild(long fromCardId, long toCardId, ArchiveRangeScan<RangeTotals> archived) {
+        RangeTotals archivedTotals = archived.take(new long[]{fromCardId, toCardId});
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Integer rows = snapshotTemplate.execute(status -> rebuildInSnapshot(fromCardId, toCardId,
+                        archivedTotals.copy(), archived.lastSegmentId()));
+                return rows == null ? 0 : rows;
+            } catch (ConcurrencyFailureException | DuplicateKeyException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Итоги карт {}..{} изменились во время пересборки, попытка {}", fromCardId, toCardId, attempt);
+            }
+        }
+    }
+
+    // Helper methods
+
+    private int rebuildInSnapshot(long fromCardId, long toCardId, RangeTotals totals, long lastSegmentId) {
+        jdbcTemplate.query(
+                "SELECT card_id, amount, created_at FROM card_top_ups WHERE card_id BETWEEN ? AND ?",
+                rs -> {
+                    totals.get(rs.getLong(1), rs.getObject(3, OffsetDateTime.class).toInstant())
+                            .addIncoming(rs.getBigDecimal(2));
+                },
+                fromCardId, toCardId);
+
+        jdbcTemplate.query(
+                "SELECT from_card_id, to_card_id, amount, created_at FROM transactions "
+                        + "WHERE from_card_id BETWEEN ? AND ? OR to_card_id BETWEEN ? AND ?",
+                rs -> {
+                    totals.addTransfer(fromCardId, toCardId, rs.getLong(1), rs.getLong(2), rs.getBigDecimal(3),
+                            rs.getObject(4, OffsetDateTime.class).toInstant());
+                },
+                fromCardId, toCardId, fromCardId, toCardId);
+
+        transactionArchive.forEachAfter(lastSegmentId, TransactionArchive.CardFilter.range(fromCardId, toCardId),
+                row -> totals.addTransfer(fromCardId, toCardId, row.fromCardId(), row.toCardId(), row.amount(),
+                        row.createdAt()));
+
+        jdbcTemplate.update("DELETE FROM card_monthly_rollups WHERE card_id BETWEEN ? AND ?", fromCardId, toCardId);
+
+        List<Map.Entry<Key, Totals>> entries = new ArrayList<>(totals.byCardMonth.entrySet());
+        jdbcTemplate.batchUpdate(INSERT_SQL, entries, 1000, (ps, entry) -> {
+            ps.setLong(1, entry.getKey().cardId());
+            ps.setString(2, entry.getKey().month().toString());
+            ps.setBigDecimal(3, entry.getValue().incomingAmount);
+            ps.setLong(4, entry.getValue().incomingCount);
+            ps.setBigDecimal(5, entry.getValue().outgoingAmount);
+            ps.setLong(6, entry.getValue().outgoingCount);
+        });
+        return entries.size();
+    }
+
+    private record Key(long cardId, YearMonth month) {
+    }
+
+    /**
+     * Итоги диапазона по (карта, месяц)
+     */
+    static final class RangeTotals {
+
+        private final Map<Key, Totals> byCardMonth = new HashMap<>();
+
+        void addTransfer(long fromCardId, long toCardId, long from, long to, BigDecimal amount, Instant createdAt) {
+            if (from >= fromCardId && from <= toCardId) {
+                get(from, createdAt).addOutgoing(amount);
+            }
+            if (to >= fromCardId && to <= toCardId) {
+                get(to, createdAt).addIncoming(amount);
+            }
+        }
+
+        Totals get(long cardId, Instant createdAt) {
+            return byCardMonth.computeIfAbsent(new Key(cardId, CardMonthlyRollups.monthOf(createdAt)),
+                    k -> new Totals());
+        }
+
+        // Попытка пересборки дополняет копию: при повторе архивные итоги берутся заново
+        RangeTotals copy() {
+            RangeTotals copy = new RangeTotals();
+            byCardMonth.forEach((key, totals) -> copy.byCardMonth.put(key, totals.copy()));
+            return copy;
+        }
+    }
+
+    private static final class Totals {
+
+        private BigDecimal incomingAmount = BigDecimal.ZERO;
+        private long incomingCount;
+        private BigDecimal outgoingAmount = BigDecimal.ZERO;
+        private long outgoingCount;
+
+        void addIncoming(BigDecimal amount) {
+            incomingAmount = incomingAmount.add(amount);
+            incomingCount++;
+        }
+
+        void addOutgoing(BigDecimal amount) {
+            outgoingAmount = outgoingAmount.add(amount);
+            outgoingCount++;
+        }
+
+        Totals copy() {
+            Totals copy = new Totals();
+            copy.incomingAmount = incomingAmount;
+            copy.incomingCount = incomingCount;
+            copy.outgoingAmount = outgoingAmount;
+            copy.outgoingCount = outgoingCount;
+            return copy;
+        }
+    }
+}
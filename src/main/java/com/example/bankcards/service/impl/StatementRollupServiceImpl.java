@@ -0,0 +1,195 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.response.StatementRebuildResponse;
+import com.example.bankcards.entity.StatementRebuildRun;
+import com.example.bankcards.entity.StatementRebuildRunStatus;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.repository.StatementRebuildRunRepository;
+import com.example.bankcards.service.StatementRollupService;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Пересборка месячных итогов карт из истории: пространство id карт делится на диапазоны по range-size,
+ * диапазоны пересобираются параллельно в ForkJoinPool (StatementRollupRangeRebuilder).
+ * Пересборка идет в фоне: запрос получает id запуска, прогресс пишется в statement_rebuild_runs
+ * после каждого диапазона. Переводы и пополнения во время пересборки продолжают обновлять итоги
+ */
+@Slf4j
+@Service
+public class StatementRollupServiceImpl implements StatementRollupService {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final StatementRebuildRunRepository runRepository;
+    private final StatementRollupRangeRebuilder rangeRebuilder;
+    private final JdbcTemplate jdbcTemplate;
+    private final ForkJoinPool pool;
+    private final int rangeSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public StatementRollupServiceImpl(
+            StatementRebuildRunRepository runRepository,
+            StatementRollupRangeRebuilder rangeRebuilder,
+            JdbcTemplate jdbcTemplate,
+            @Value("${app.statements.rebuild.parallelism:4}") int parallelism,
+            @Value("${app.statements.rebuild.range-size:10000}") int rangeSize
+    ) {
+        this.runRepository = runRepository;
+        this.rangeRebuilder = rangeRebuilder;
+        this.jdbcTemplate = jdbcTemplate;
+        this.pool = new ForkJoinPool(parallelism);
+        this.rangeSize = rangeSize;
+    }
+
+    @Override
+    public StatementRebuildResponse startRebuild() {
+        if (!running.compareAndSet(false, true)) {
+            throw new BusinessException(HttpStatus.CONFLICT, "STATEMENT_REBUILD_RUNNING",
+                    "Пересборка выписок уже выполняется");
+        }
+
+        try {
+            List<long[]> ranges = splitCardIdSpace();
+            StatementRebuildRun run = runRepository.save(StatementRebuildRun.builder()
+                    .status(StatementRebuildRunStatus.RUNNING)
+                    .totalRanges(ranges.size())
+                    .startedAt(Instant.now())
+                    .build());
+
+            pool.execute(() -> execute(run, ranges));
+            return toResponse(run);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public StatementRebuildResponse getRun(Long runId) {
+        return toResponse(findRun(runId));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // Helper methods
+
+    private void execute(StatementRebuildRun run, List<long[]> ranges) {
+        try {
+            // Архив читается один раз для всех диапазонов: каждый сегмент содержит карты всех диапазонов
+            ArchiveRangeScan<StatementRollupRangeRebuilder.RangeTotals> archived =
+                    rangeRebuilder.scanArchive(ranges, rangeSize);
+            pool.invoke(new RangeTask(run.getId(), ranges, archived, 0, ranges.size()));
+
+            StatementRebuildRun finished = findRun(run.getId());
+            finished.setStatus(StatementRebuildRunStatus.COMPLETED);
+            finished.setFinishedAt(Instant.now());
+            runRepository.save(finished);
+
+            log.info("Месячные итоги пересобраны ({}): {} диапазонов, {} строк, {} мс",
+                    run.getId(), ranges.size(), finished.getRollups(),
+                    Duration.between(finished.getStartedAt(), finished.getFinishedAt()).toMillis());
+        } catch (RuntimeException e) {
+            log.error("Пересборка месячных итогов {} завершилась ошибкой", run.getId(), e);
+            StatementRebuildRun failed = findRun(run.getId());
+            failed.setStatus(StatementRebuildRunStatus.FAILED);
+            failed.setFinishedAt(Instant.now());
+            failed.setError(truncate(e.toString()));
+            runRepository.save(failed);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<long[]> splitCardIdSpace() {
+        Map<String, Object> bounds = jdbcTemplate.queryForMap("SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM cards");
+        List<long[]> ranges = new ArrayList<>();
+        if (bounds.get("min_id") == null) {
+            return ranges;
+        }
+
+        long minId = ((Number) bounds.get("min_id")).longValue();
+        long maxId = ((Number) bounds.get("max_id")).longValue();
+        for (long from = minId; from <= maxId; from += rangeSize) {
+            ranges.add(new long[]{from, Math.min(from + rangeSize - 1, maxId)});
+        }
+        return ranges;
+    }
+
+    private StatementRebuildRun findRun(Long runId) {
+        return runRepository.findById(runId)
+                .orElseThrow(() -> new EntityNotFoundException("Пересборка не найдена: " + runId));
+    }
+
+    private StatementRebuildResponse toResponse(StatementRebuildRun run) {
+        return StatementRebuildResponse.builder()
+                .id(run.getId())
+                .status(run.getStatus().name())
+                .totalRanges(run.getTotalRanges())
+                .completedRanges(run.getCompletedRanges())
+                .rollups(run.getRollups())
+                .startedAt(run.getStartedAt())
+                .finishedAt(run.getFinishedAt())
+                .error(run.getError())
+                .build();
+    }
+
+    private String truncate(String message) {
+        return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    /**
+     * Делит список диапазонов пополам, пока не останется один диапазон
+     */
+    private class RangeTask extends RecursiveAction {
+
+        private final Long runId;
+        private final List<long[]> ranges;
+        private final ArchiveRangeScan<StatementRollupRangeRebuilder.RangeTotals> archived;
+        private final int from;
+        private final int to;
+
+        RangeTask(Long runId, List<long[]> ranges,
+                  ArchiveRangeScan<StatementRollupRangeRebuilder.RangeTotals> archived, int from, int to) {
+            this.runId = runId;
+            this.ranges = ranges;
+            this.archived = archived;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(runId, ranges, archived, from, middle),
+                        new RangeTask(runId, ranges, archived, middle, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+
+            long[] range = ranges.get(from);
+            int rollups = rangeRebuilder.rebuild(range[0], range[1], archived);
+            runRepository.addRangeProgress(runId, rollups);
+        }
+    }
+}
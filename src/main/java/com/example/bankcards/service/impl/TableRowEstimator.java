@@ -0,0 +1,47 @@
+package com.example.bankcards.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * Оценка числа строк таблицы по статистике PostgreSQL (pg_class.reltuples, обновляется ANALYZE и autovacuum)
+ * вместо count(*), который читает всю таблицу. На других БД и до первого ANALYZE оценки нет
+ */
+@Component
+@RequiredArgsConstructor
+public class TableRowEstimator {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public OptionalLong estimate(String table) {
+        if (!isPostgres()) {
+            return OptionalLong.empty();
+        }
+        List<Long> rows = jdbcTemplate.queryForList(
+                "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)", Long.class, table);
+        // -1 — таблица еще ни разу не анализировалась
+        if (rows.isEmpty() || rows.get(0) == null || rows.get(0) < 0) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(rows.get(0));
+    }
+
+    // Helper methods
+
+    private boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            result = jdbcTemplate.execute((ConnectionCallback<Boolean>) con ->
+                    "PostgreSQL".equals(con.getMetaData().getDatabaseProductName()));
+            postgres = result;
+        }
+        return result;
+    }
+}
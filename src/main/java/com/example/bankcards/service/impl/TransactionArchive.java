@@ -0,0 +1,345 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.entity.TransactionArchiveSegment;
+import com.example.bankcards.repository.TransactionArchiveSegmentRepository;
+import com.example.bankcards.util.ExpiringLruCache;
+import com.example.bankcards.util.TransactionCursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Чтение архива transactions: строки старше горячего окна, перенесенные TransactionArchiver
+ * в файлы сегментов (ArchiveSegmentFile). Сегменты отбираются по границам created_at и id карт из реестра,
+ * внутри сегмента сначала читаются колонки created_at и id карт, остальные — только если нашлись подходящие строки.
+ * <p>
+ * Реестр читается в текущей транзакции: в снимке БД строка находится либо в transactions, либо в сегменте,
+ * поэтому история и баланс на дату читают БД и архив в одной транзакции REPEATABLE READ.
+ * Вне снимка (выгрузка) сначала читается БД, потом архив, и строка, перенесенная между чтениями,
+ * может встретиться дважды — при слиянии такие строки отбрасываются по (createdAt, id)
+ */
+@Component
+public class TransactionArchive {
+
+    private static final int COUNT_CACHE_SIZE = 10_000;
+    private static final Duration COUNT_CACHE_TTL = Duration.ofMinutes(5);
+
+    private final TransactionArchiveSegmentRepository segmentRepository;
+    private final Path directory;
+
+    // Число архивных строк пользователя за период: сегменты не меняются, ключ включает последний сегмент реестра
+    private final ExpiringLruCache<CountKey, Long> counts = new ExpiringLruCache<>(COUNT_CACHE_SIZE, COUNT_CACHE_TTL);
+
+    private volatile Registry registry = new Registry(0, List.of());
+
+    public TransactionArchive(TransactionArchiveSegmentRepository segmentRepository,
+                              @Value("${app.transactions.archive.directory:./data/archive}") Path directory) {
+        this.segmentRepository = segmentRepository;
+        this.directory = directory;
+    }
+
+    public record Row(UUID id, BigDecimal amount, long fromCardId, long toCardId, Instant createdAt) {
+
+        public TransactionCursor position() {
+            return new TransactionCursor(createdAt, id);
+        }
+    }
+
+    /**
+     * Отбор строк по картам: строка подходит, если подходит карта списания или карта зачисления.
+     * Границы minCardId/maxCardId сравниваются с границами сегмента
+     */
+    public record CardFilter(long minCardId, long maxCardId, Set<Long> cardIds) {
+
+        public static CardFilter of(Collection<Long> cardIds) {
+            if (cardIds.isEmpty()) {
+                return new CardFilter(1, 0, Set.of());
+            }
+            return new CardFilter(
+                    cardIds.stream().mapToLong(Long::longValue).min().getAsLong(),
+                    cardIds.stream().mapToLong(Long::longValue).max().getAsLong(),
+                    Set.copyOf(cardIds));
+        }
+
+        public static CardFilter range(long fromCardId, long toCardId) {
+            return new CardFilter(fromCardId, toCardId, null);
+        }
+
+        public boolean matches(long cardId) {
+            return cardId >= minCardId && cardId <= maxCardId && (cardIds == null || cardIds.contains(cardId));
+        }
+
+        private boolean overlaps(TransactionArchiveSegment segment) {
+            return segment.getMinCardId() <= maxCardId && segment.getMaxCardId() >= minCardId;
+        }
+    }
+
+    /**
+     * Есть ли в архиве сегменты, пересекающие период [from, to) (null — без границы)
+     */
+    public boolean overlaps(Instant from, Instant to) {
+        return segments().stream().anyMatch(segment -> inPeriod(segment, from, to));
+    }
+
+    /**
+     * Нужен ли архив странице истории, прочитанной из БД от новых строк к старым.
+     * oldestLoaded — самая старая строка полной страницы, null — страница неполная.
+     * Архив не нужен, если полная страница целиком новее всех архивных строк периода
+     */
+    public boolean isReachedBy(Instant from, Instant to, Instant oldestLoaded) {
+        Instant newestArchived = null;
+        for (TransactionArchiveSegment segment : segments()) {
+            if (inPeriod(segment, from, to)
+                    && (newestArchived == null || segment.getMaxCreatedAt().isAfter(newestArchived))) {
+                newestArchived = segment.getMaxCreatedAt();
+            }
+        }
+        return newestArchived != null && (oldestLoaded == null || !oldestLoaded.isAfter(newestArchived));
+    }
+
+    /**
+     * До limit архивных строк периода от новых к старым, строго после курсора after (null — с начала)
+     */
+    public List<Row> findNewestFirst(CardFilter filter, Instant from, Instant to, TransactionCursor after, int limit) {
+        List<TransactionArchiveSegment> segments = segments();
+        List<Row> rows = new ArrayList<>(Math.min(limit, 1024));
+        for (int s = segments.size() - 1; s >= 0 && rows.size() < limit; s--) {
+            TransactionArchiveSegment segment = segments.get(s);
+            if (!candidate(segment, filter, from, to)
+                    || (after != null && segment.getMinCreatedAt().isAfter(after.createdAt()))) {
+                continue;
+            }
+            Matches matches = scan(segment, filter, from, to, true);
+            for (int i = matches.rows().length - 1; i >= 0 && rows.size() < limit; i--) {
+                Row row = matches.row(i);
+                if (after == null || TransactionCursor.ORDER.compare(row.position(), after) < 0) {
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Архивные строки периода по возрастанию (createdAt, id). Сегменты читаются по одному по мере обхода
+     */
+    public Iterator<Row> iterateOldestFirst(CardFilter filter, Instant from, Instant to) {
+        Iterator<TransactionArchiveSegment> segments = segments().stream()
+                .filter(segment -> candidate(segment, filter, from, to))
+                .iterator();
+
+        return new Iterator<>() {
+            private Matches current;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || next >= current.rows().length) {
+                    if (!segments.hasNext()) {
+                        return false;
+                    }
+                    current = scan(segments.next(), filter, from, to, true);
+                    next = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.row(next++);
+            }
+        };
+    }
+
+    /**
+     * Все архивные строки периода в порядке хранения
+     */
+    public void forEach(CardFilter filter, Instant from, Instant to, Consumer<Row> consumer) {
+        iterateOldestFirst(filter, from, to).forEachRemaining(consumer);
+    }
+
+    /**
+     * Все архивные строки карт filter одним проходом по сегментам, видимым в текущей транзакции.
+     * Возвращает id последнего прочитанного сегмента (0 — архив пуст): сегменты не меняются и не удаляются,
+     * поэтому любой более поздний снимок видит все прочитанные строки и дочитывает только forEachAfter
+     */
+    public long forEachVisible(CardFilter filter, Consumer<Row> consumer) {
+        List<TransactionArchiveSegment> segments = segments();
+        for (TransactionArchiveSegment segment : segments) {
+            if (filter.overlaps(segment)) {
+                Matches matches = scan(segment, filter, null, null, true);
+                for (int i = 0; i < matches.rows().length; i++) {
+                    consumer.accept(matches.row(i));
+                }
+            }
+        }
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getId();
+    }
+
+    /**
+     * Архивные строки карт filter из сегментов, зарегистрированных после afterSegmentId
+     */
+    public void forEachAfter(long afterSegmentId, CardFilter filter, Consumer<Row> consumer) {
+        for (TransactionArchiveSegment segment : segments()) {
+            if (segment.getId() > afterSegmentId && filter.overlaps(segment)) {
+                Matches matches = scan(segment, filter, null, null, true);
+                for (int i = 0; i < matches.rows().length; i++) {
+                    consumer.accept(matches.row(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Число архивных строк периода. Читаются только колонки created_at и id карт
+     */
+    public long count(CardFilter filter, Instant from, Instant to) {
+        List<TransactionArchiveSegment> segments = segments();
+        CountKey key = new CountKey(filter, from, to, segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getId());
+        Long cached = counts.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long count = 0;
+        for (TransactionArchiveSegment segment : segments) {
+            if (candidate(segment, filter, from, to)) {
+                count += scan(segment, filter, from, to, false).rows().length;
+            }
+        }
+        counts.put(key, count);
+        return count;
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    Path segmentPath(String fileName) {
+        return directory.resolve(fileName);
+    }
+
+    /**
+     * Зарегистрированные сегменты по порядку строк, видимые в текущей транзакции.
+     * Список кэшируется и перечитывается, когда в реестре появился новый сегмент
+     */
+    List<TransactionArchiveSegment> segments() {
+        long latestId = segmentRepository.findLatestId().orElse(0L);
+        Registry current = registry;
+        if (latestId > current.latestId()) {
+            current = new Registry(latestId, List.copyOf(segmentRepository.findAllByOrderByIdAsc()));
+            registry = current;
+        }
+        if (latestId == current.latestId()) {
+            return current.segments();
+        }
+        // Снимок БД старше кэша: сегменты, зарегистрированные после него, в снимке не видны
+        return current.segments().stream().filter(segment -> segment.getId() <= latestId).toList();
+    }
+
+    // Helper methods
+
+    private static boolean inPeriod(TransactionArchiveSegment segment, Instant from, Instant to) {
+        return (from == null || !segment.getMaxCreatedAt().isBefore(from))
+                && (to == null || segment.getMinCreatedAt().isBefore(to));
+    }
+
+    private static boolean candidate(TransactionArchiveSegment segment, CardFilter filter, Instant from, Instant to) {
+        return inPeriod(segment, from, to) && filter.overlaps(segment);
+    }
+
+    private Matches scan(TransactionArchiveSegment segment, CardFilter filter, Instant from, Instant to,
+                         boolean withValues) {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment.getFileName()), StandardOpenOption.READ)) {
+            ArchiveSegmentFile.Header header = ArchiveSegmentFile.readHeader(channel);
+            long[] createdAt = ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.CREATED_AT);
+            long[] fromCard = ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.FROM_CARD);
+            long[] toCard = ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.TO_CARD);
+
+            // Строки упорядочены по created_at: период — непрерывный отрезок строк
+            int lo = from == null ? 0 : lowerBound(createdAt, boundNanos(from));
+            int hi = to == null ? createdAt.length : lowerBound(createdAt, boundNanos(to));
+            int[] rows = new int[Math.max(0, hi - lo)];
+            int matched = 0;
+            for (int i = lo; i < hi; i++) {
+                if (filter.matches(fromCard[i]) || filter.matches(toCard[i])) {
+                    rows[matched++] = i;
+                }
+            }
+            rows = Arrays.copyOf(rows, matched);
+
+            if (!withValues || matched == 0) {
+                return new Matches(rows, createdAt, fromCard, toCard, null, null, null, header.amountScale());
+            }
+            return new Matches(rows, createdAt, fromCard, toCard,
+                    ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.ID_HIGH),
+                    ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.ID_LOW),
+                    ArchiveSegmentFile.readColumn(channel, header, ArchiveSegmentFile.Column.AMOUNT),
+                    header.amountScale());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать сегмент архива " + segment.getFileName(), e);
+        }
+    }
+
+    // Границы периода могут быть за пределами наносекунд в long (например, 9999 год) — тогда граница открыта
+    private static long boundNanos(Instant instant) {
+        try {
+            return ArchiveSegmentFile.toNanos(instant);
+        } catch (ArithmeticException e) {
+            return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private record Registry(long latestId, List<TransactionArchiveSegment> segments) {
+    }
+
+    private record CountKey(CardFilter filter, Instant from, Instant to, long latestSegmentId) {
+    }
+
+    /**
+     * Номера подходящих строк сегмента и прочитанные колонки
+     */
+    private record Matches(int[] rows, long[] createdAt, long[] fromCard, long[] toCard,
+                           long[] idHigh, long[] idLow, long[] amount, int amountScale) {
+
+        Row row(int i) {
+            int r = rows[i];
+            return new Row(new UUID(idHigh[r], idLow[r]), BigDecimal.valueOf(amount[r], amountScale),
+                    fromCard[r], toCard[r], ArchiveSegmentFile.toInstant(createdAt[r]));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.entity.TransactionArchiveSegment;
+import com.example.bankcards.repository.TransactionArchiveSegmentRepository;
+import com.example.bankcards.util.TransactionCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Перенос строк transactions старше hot-window в архив. Строки читаются по возрастанию (created_at, id)
+ * пачками по segment-rows, каждая пачка записывается в файл сегмента и сбрасывается на диск,
+ * затем одной транзакцией сегмент регистрируется, а его строки удаляются из БД.
+ * Если транзакция не удалась, файл удаляется; файлы без записи в реестре (сбой между записью и фиксацией)
+ * удаляются в начале следующего переноса. Перенос должен выполняться на одном узле
+ */
+@Slf4j
+@Component
+public class TransactionArchiver {
+
+    private static final String SELECT_CHUNK_SQL = """
+            SELECT t.id, t.amount, t.from_card_id, t.to_card_id, t.created_at FROM transactions t
+            WHERE t.created_at < ?
+            ORDER BY t.created_at, t.id
+            LIMIT ?
+            """;
+
+    // Все строки до последней строки пачки включительно в порядке (created_at, id) — ровно строки пачки
+    private static final String DELETE_CHUNK_SQL = """
+            DELETE FROM transactions
+            WHERE created_at <= ? AND (created_at < ? OR id <= ?)
+            """;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionArchiveSegmentRepository segmentRepository;
+    private final TransactionArchive transactionArchive;
+    private final Duration hotWindow;
+    private final int segmentRows;
+
+    public TransactionArchiver(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               TransactionArchiveSegmentRepository segmentRepository,
+                               TransactionArchive transactionArchive,
+                               @Value("${app.transactions.archive.hot-window:180d}") Duration hotWindow,
+                               @Value("${app.transactions.archive.segment-rows:100000}") int segmentRows) {
+        if (segmentRows <= 0) {
+            throw new IllegalArgumentException("Размер сегмента архива должен быть положительным");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.segmentRepository = segmentRepository;
+        this.transactionArchive = transactionArchive;
+        this.hotWindow = hotWindow;
+        this.segmentRows = segmentRows;
+    }
+
+    @Scheduled(cron = "${app.transactions.archive.cron:-}", zone = "UTC")
+    public void archive() {
+        archiveBefore(Instant.now().minus(hotWindow));
+    }
+
+    /**
+     * Переносит в архив все строки с created_at раньше cutoff. Возвращает число перенесенных строк
+     */
+    public synchronized long archiveBefore(Instant cutoff) {
+        removeOrphanFiles();
+
+        long archived = 0;
+        List<TransactionArchive.Row> rows;
+        do {
+            rows = jdbcTemplate.query(SELECT_CHUNK_SQL, (rs, rowNum) -> new TransactionArchive.Row(
+                    rs.getObject(1, UUID.class),
+                    rs.getBigDecimal(2),
+                    rs.getLong(3),
+                    rs.getLong(4),
+                    rs.getObject(5, OffsetDateTime.class).toInstant()
+            ), cutoff.atOffset(ZoneOffset.UTC), segmentRows);
+            if (!rows.isEmpty()) {
+                archiveChunk(rows);
+                archived += rows.size();
+            }
+        } while (rows.size() == segmentRows);
+
+        if (archived > 0) {
+            log.info("В архив перенесено {} строк transactions раньше {}", archived, cutoff);
+        }
+        return archived;
+    }
+
+    // Helper methods
+
+    private void archiveChunk(List<TransactionArchive.Row> rows) {
+        // Последняя строка в порядке БД задает границу удаления, файл упорядочен так же, как читается история
+        TransactionArchive.Row last = rows.get(rows.size() - 1);
+        List<TransactionArchive.Row> ordered = rows.stream()
+                .sorted(Comparator.comparing(TransactionArchive.Row::position, TransactionCursor.ORDER))
+                .toList();
+
+        String fileName = SEGMENT_PREFIX + UUID.randomUUID() + ArchiveSegmentFile.SUFFIX;
+        Path path = transactionArchive.segmentPath(fileName);
+        ArchiveSegmentFile.Header header;
+        long size;
+        try {
+            Files.createDirectories(transactionArchive.directory());
+            header = ArchiveSegmentFile.write(path, ordered);
+            size = Files.size(path);
+        } catch (IOException e) {
+            deleteQuietly(path);
+            throw new UncheckedIOException("Не удалось записать сегмент архива " + fileName, e);
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                segmentRepository.save(TransactionArchiveSegment.builder()
+                        .fileName(fileName)
+                        .rowCount(rows.size())
+                        .minCreatedAt(ArchiveSegmentFile.toInstant(header.minCreatedAt()))
+                        .maxCreatedAt(ArchiveSegmentFile.toInstant(header.maxCreatedAt()))
+                        .minCardId(header.minCardId())
+                        .maxCardId(header.maxCardId())
+                        .sizeBytes(size)
+                        .archivedAt(Instant.now())
+                        .build());
+
+                Object lastCreatedAt = last.createdAt().atOffset(ZoneOffset.UTC);
+                int deleted = jdbcTemplate.update(DELETE_CHUNK_SQL, lastCreatedAt, lastCreatedAt, last.id());
+                if (deleted != rows.size()) {
+                    // Строка со старым created_at появилась после чтения пачки — в сегмент она не попала
+                    throw new IllegalStateException("Удалено " + deleted + " строк transactions вместо " + rows.size());
+                }
+            });
+        } catch (RuntimeException e) {
+            deleteQuietly(path);
+            throw e;
+        }
+        log.debug("Сегмент архива {}: {} строк", fileName, rows.size());
+    }
+
+    private void removeOrphanFiles() {
+        Path directory = transactionArchive.directory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Set<String> registered = segmentRepository.findAllByOrderByIdAsc().stream()
+                .map(TransactionArchiveSegment::getFileName)
+                .collect(Collectors.toSet());
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(file -> !registered.contains(file.getFileName().toString()))
+                    .forEach(file -> {
+                        log.warn("Удален незарегистрированный файл архива {}", file.getFileName());
+                        deleteQuietly(file);
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать каталог архива " + directory, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл архива {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.service.ExportFormat;
+import com.example.bankcards.service.TransactionExportService;
+import com.example.bankcards.util.TransactionCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Выгрузка истории транзакций потоком: строки читаются однонаправленным курсором
+ * с фиксированным fetch-size и сразу пишутся в ответ, поэтому память не зависит от длины истории.
+ * Буфер ответа сбрасывается клиенту каждые flush-rows строк. Строки архива вставляются в поток по порядку,
+ * сегменты архива читаются по одному
+ */
+@Slf4j
+@Service
+public class TransactionExportServiceImpl implements TransactionExportService {
+
+    // Та же форма, что у истории пользователя: каждая ветка читает свой индекс (card_id, created_at)
+    private static final String EXPORT_SQL = """
+            SELECT h.id, h.created_at, h.amount, h.from_card_id, h.to_card_id FROM (
+                SELECT t.id, t.created_at, t.amount, t.from_card_id, t.to_card_id FROM transactions t
+                WHERE t.from_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = ?)
+                  AND t.created_at >= ? AND t.created_at < ?
+                UNION ALL
+                SELECT t.id, t.created_at, t.amount, t.from_card_id, t.to_card_id FROM transactions t
+                WHERE t.to_card_id IN (SELECT c.id FROM cards c WHERE c.owner_id = ?)
+                  AND t.from_card_id NOT IN (SELECT c.id FROM cards c WHERE c.owner_id = ?)
+                  AND t.created_at >= ? AND t.created_at < ?
+            ) h
+            ORDER BY h.created_at, h.id
+            """;
+
+    private static final String USER_CARDS_SQL = "SELECT id FROM cards WHERE owner_id = ?";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionArchive transactionArchive;
+    private final int fetchSize;
+    private final int flushRows;
+
+    public TransactionExportServiceImpl(JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager,
+                                        TransactionArchive transactionArchive,
+                                        @Value("${app.transactions.export.fetch-size:1000}") int fetchSize,
+                                        @Value("${app.transactions.export.flush-rows:1000}") int flushRows) {
+        if (fetchSize <= 0 || flushRows <= 0) {
+            throw new IllegalArgumentException("fetch-size и flush-rows выгрузки должны быть положительными");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        // PostgreSQL читает порциями по fetch-size только внутри транзакции (без autocommit)
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionArchive = transactionArchive;
+        this.fetchSize = fetchSize;
+        this.flushRows = flushRows;
+    }
+
+    @Override
+    public StreamingResponseBody exportMyTransactions(Long userId, ExportFormat format, Instant from, Instant to) {
+        // Без верхней границы выгружается история на момент запроса: строки, появившиеся во время выгрузки, не попадут
+        Instant start = from != null ? from : Instant.EPOCH;
+        Instant end = to != null ? to : Instant.now();
+        if (!start.isBefore(end)) {
+            throw new IllegalArgumentException("Начало периода выгрузки должно быть раньше конца");
+        }
+
+        return out -> {
+            long rows = export(userId, format, start, end, out);
+            log.info("Выгрузка {} транзакций пользователя {} в формате {}", rows, userId, format);
+        };
+    }
+
+    // Helper methods
+
+    private long export(Long userId, ExportFormat format, Instant from, Instant to, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        RowWriter rowWriter = format == ExportFormat.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+        rowWriter.header();
+
+        long[] rows = {0};
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // Архив читается после того, как запрос к БД начал выполняться: строка, перенесенная в архив
+                // после начала выгрузки, есть и там и там и выводится один раз
+                ArchiveMerge archived = new ArchiveMerge(userId, from, to);
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(
+                            EXPORT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(fetchSize);
+                    ps.setLong(1, userId);
+                    ps.setObject(2, from.atOffset(ZoneOffset.UTC));
+                    ps.setObject(3, to.atOffset(ZoneOffset.UTC));
+                    ps.setLong(4, userId);
+                    ps.setLong(5, userId);
+                    ps.setObject(6, from.atOffset(ZoneOffset.UTC));
+                    ps.setObject(7, to.atOffset(ZoneOffset.UTC));
+                    return ps;
+                }, (RowCallbackHandler) rs -> {
+                    TransactionArchive.Row row = new TransactionArchive.Row(
+                            rs.getObject(1, UUID.class),
+                            rs.getBigDecimal(3),
+                            rs.getLong(4),
+                            rs.getLong(5),
+                            rs.getObject(2, OffsetDateTime.class).toInstant());
+                    archived.writeBefore(row.position(), rowWriter, writer, rows);
+                    write(row, rowWriter, writer, rows);
+                });
+                archived.writeBefore(null, rowWriter, writer, rows);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writer.flush();
+        return rows[0];
+    }
+
+    private void write(TransactionArchive.Row row, RowWriter rowWriter, Writer writer, long[] rows) {
+        try {
+            rowWriter.row(row);
+            if (++rows[0] % flushRows == 0) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Клиент закрыл соединение — чтение прекращается вместе с транзакцией
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Архивные строки выгрузки, которые вставляются в поток строк БД по порядку (createdAt, id).
+     * Архив открывается при первой строке БД (или после запроса, если строк нет)
+     */
+    private class ArchiveMerge {
+
+        private final Long userId;
+        private final Instant from;
+        private final Instant to;
+        private Iterator<TransactionArchive.Row> rows;
+        private TransactionArchive.Row next;
+
+        ArchiveMerge(Long userId, Instant from, Instant to) {
+            this.userId = userId;
+            this.from = from;
+            this.to = to;
+        }
+
+        // Пишет архивные строки раньше position (null — все оставшиеся); строка, совпавшая с position, пропускается
+        void writeBefore(TransactionCursor position, RowWriter rowWriter, Writer writer, long[] written) {
+            if (rows == null) {
+                rows = transactionArchive.overlaps(from, to)
+                        ? transactionArchive.iterateOldestFirst(TransactionArchive.CardFilter.of(
+                                jdbcTemplate.queryForList(USER_CARDS_SQL, Long.class, userId)), from, to)
+                        : Collections.emptyIterator();
+            }
+            while (next != null || rows.hasNext()) {
+                if (next == null) {
+                    next = rows.next();
+                }
+                int order = position == null ? -1 : TransactionCursor.ORDER.compare(next.position(), position);
+                if (order > 0) {
+                    return;
+                }
+                if (order < 0) {
+                    write(next, rowWriter, writer, written);
+                }
+                next = null;
+            }
+        }
+    }
+
+    private interface RowWriter {
+        void header() throws IOException;
+
+        void row(TransactionArchive.Row row) throws IOException;
+    }
+
+    /**
+     * Значения — uuid, числа и время ISO-8601, поэтому экранирование не нужно
+     */
+    private record CsvRowWriter(Writer writer) implements RowWriter {
+
+        @Override
+        public void header() throws IOException {
+            writer.write("id,createdAt,amount,fromCardId,toCardId\n");
+        }
+
+        @Override
+        public void row(TransactionArchive.Row row) throws IOException {
+            writer.write(row.id().toString());
+            writer.write(',');
+            writer.write(row.createdAt().toString());
+            writer.write(',');
+            writer.write(row.amount().toPlainString());
+            writer.write(',');
+            writer.write(Long.toString(row.fromCardId()));
+            writer.write(',');
+            writer.write(Long.toString(row.toCardId()));
+            writer.write('\n');
+        }
+    }
+
+    private record NdjsonRowWriter(Writer writer) implements RowWriter {
+
+        @Override
+        public void header() {
+        }
+
+        @Override
+        public void row(TransactionArchive.Row row) throws IOException {
+            writer.write("{\"id\":\"");
+            writer.write(row.id().toString());
+            writer.write("\",\"createdAt\":\"");
+            writer.write(row.createdAt().toString());
+            writer.write("\",\"amount\":");
+            writer.write(row.amount().toPlainString());
+            writer.write(",\"fromCardId\":");
+            writer.write(Long.toString(row.fromCardId()));
+            writer.write(",\"toCardId\":");
+            writer.write(Long.toString(row.toCardId()));
+            writer.write("}\n");
+        }
+    }
+}
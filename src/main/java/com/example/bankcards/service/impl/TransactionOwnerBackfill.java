@@ -0,0 +1,89 @@
+package com.example.bankcards.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Фоновое заполнение from_owner_id / to_owner_id у строк transactions, записанных до появления этих колонок.
+ * Строки обновляются пачками по chunk-size, каждая пачка — в своей короткой транзакции,
+ * чтобы не держать блокировки и не раздувать WAL одной большой транзакцией.
+ * Пока заполнение не закончено, история читается старыми запросами через cards
+ */
+@Slf4j
+@Component
+public class TransactionOwnerBackfill {
+
+    // На PostgreSQL строки без владельцев находятся по частичному индексу idx_transactions_owner_backfill
+    private static final String BACKFILL_CHUNK_SQL = """
+            UPDATE transactions t
+            SET from_owner_id = (SELECT c.owner_id FROM cards c WHERE c.id = t.from_card_id),
+                to_owner_id = (SELECT c.owner_id FROM cards c WHERE c.id = t.to_card_id)
+            WHERE t.id IN (SELECT p.id FROM transactions p
+                           WHERE p.from_owner_id IS NULL OR p.to_owner_id IS NULL
+                           LIMIT ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    private volatile boolean complete;
+
+    public TransactionOwnerBackfill(JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${app.transactions.owner-backfill.chunk-size:5000}") int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Размер пачки заполнения должен быть положительным");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Все строки transactions содержат владельцев, и историю можно читать по owner-индексам.
+     * Новые строки пишутся сразу с владельцами, поэтому однажды установленный признак не сбрасывается
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Scheduled(fixedDelayString = "${app.transactions.owner-backfill.interval:PT1S}")
+    public void backfillNextChunk() {
+        if (!complete) {
+            backfillChunk();
+        }
+    }
+
+    /**
+     * Заполняет все оставшиеся строки. Возвращает число обновленных строк
+     */
+    public long backfillAll() {
+        long total = 0;
+        int updated;
+        while ((updated = backfillChunk()) > 0) {
+            total += updated;
+        }
+        return total;
+    }
+
+    // Helper methods
+
+    private int backfillChunk() {
+        Integer updated = transactionTemplate.execute(status -> jdbcTemplate.update(BACKFILL_CHUNK_SQL, chunkSize));
+        if (updated == null || updated == 0) {
+            if (!complete) {
+                log.info("Заполнение владельцев в transactions завершено");
+            }
+            complete = true;
+            return 0;
+        }
+        log.debug("Заполнены владельцы у {} строк transactions", updated);
+        return updated;
+    }
+}
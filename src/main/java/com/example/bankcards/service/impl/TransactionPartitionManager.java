@@ -0,0 +1,170 @@
+package com.example.bankcards.service.impl;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Обслуживание помесячных секций transactions (миграция 013, только PostgreSQL).
+ * При старте и по расписанию создает секции на текущий и premake-months следующих месяцев.
+ * При retention-months > 0 отключает секции старше срока через DETACH PARTITION ... CONCURRENTLY
+ * (PostgreSQL 14+): таблица продолжает принимать запись, отключенная секция остается отдельной таблицей.
+ * Секция, отключение которой прервалось (detach pending), дорабатывается через DETACH PARTITION ... FINALIZE.
+ * На других БД и на несекционированной таблице ничего не делает
+ */
+@Slf4j
+@Component
+public class TransactionPartitionManager {
+
+    public static final String PARTITION_PREFIX = "transactions_p";
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION_NAME = Pattern.compile(PARTITION_PREFIX + "(\\d{6})");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String PARTITIONS_SQL = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid)
+            FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'transactions'::regclass
+            """;
+
+    private static final String DETACH_PENDING_SQL = """
+            SELECT c.relname
+            FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'transactions'::regclass AND i.inhdetachpending
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int premakeMonths;
+    private final int retentionMonths;
+
+    private volatile Boolean partitioned;
+
+    public TransactionPartitionManager(JdbcTemplate jdbcTemplate,
+                                       @Value("${app.transactions.partitions.premake-months:3}") int premakeMonths,
+                                       @Value("${app.transactions.partitions.retention-months:0}") int retentionMonths) {
+        if (premakeMonths < 0 || retentionMonths < 0) {
+            throw new IllegalArgumentException("Число месяцев секций не может быть отрицательным");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.premakeMonths = premakeMonths;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @PostConstruct
+    void start() {
+        try {
+            maintain();
+        } catch (DataAccessException e) {
+            // Приложение может работать дальше: секции на ближайшие месяцы создает и миграция, и следующий запуск задачи
+            log.warn("Не удалось подготовить секции transactions при старте", e);
+        }
+    }
+
+    @Scheduled(cron = "${app.transactions.partitions.cron:0 0 1 * * *}", zone = "UTC")
+    public void maintain() {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        ensurePartitions(current);
+        if (retentionMonths > 0) {
+            detachPartitionsBefore(current.minusMonths(retentionMonths));
+        }
+    }
+
+    public boolean isPartitioned() {
+        Boolean result = partitioned;
+        if (result == null) {
+            result = jdbcTemplate.execute((ConnectionCallback<Boolean>) con ->
+                    "PostgreSQL".equals(con.getMetaData().getDatabaseProductName()))
+                    && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('transactions'))",
+                    Boolean.class));
+            partitioned = result;
+        }
+        return result;
+    }
+
+    /**
+     * Создает недостающие секции от конца последней существующей секции (но не раньше current)
+     * до current + premake-months включительно. Возвращает имена созданных секций
+     */
+    public List<String> ensurePartitions(YearMonth current) {
+        List<String> created = new ArrayList<>();
+        if (!isPartitioned()) {
+            return created;
+        }
+
+        YearMonth last = current.plusMonths(premakeMonths);
+        YearMonth month = upperBound().filter(bound -> bound.isAfter(current)).orElse(current);
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            String name = partitionName(month);
+            jdbcTemplate.execute(String.format(
+                    "CREATE TABLE IF NOT EXISTS %s PARTITION OF transactions FOR VALUES FROM ('%s') TO ('%s')",
+                    name, month.atDay(1), month.plusMonths(1).atDay(1)));
+            created.add(name);
+        }
+        if (!created.isEmpty()) {
+            log.info("Созданы секции transactions: {}", created);
+        }
+        return created;
+    }
+
+    /**
+     * Отключает помесячные секции за месяцы раньше cutoff. Без блокировки записи в transactions,
+     * поэтому выполняется вне транзакции. Сначала завершает прерванное отключение: пока секция в состоянии
+     * detach pending, PostgreSQL не начнет отключение другой секции. Возвращает имена отключенных секций
+     */
+    public List<String> detachPartitionsBefore(YearMonth cutoff) {
+        List<String> detached = new ArrayList<>();
+        if (!isPartitioned()) {
+            return detached;
+        }
+
+        for (String name : jdbcTemplate.query(DETACH_PENDING_SQL, (rs, rowNum) -> rs.getString(1))) {
+            log.warn("Секция {} осталась в состоянии detach pending, отключение завершается", name);
+            jdbcTemplate.execute("ALTER TABLE transactions DETACH PARTITION " + name + " FINALIZE");
+            detached.add(name);
+        }
+        for (String name : jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> rs.getString(1))) {
+            Matcher matcher = PARTITION_NAME.matcher(name);
+            if (matcher.matches() && YearMonth.parse(matcher.group(1), PARTITION_SUFFIX).isBefore(cutoff)) {
+                jdbcTemplate.execute("ALTER TABLE transactions DETACH PARTITION " + name + " CONCURRENTLY");
+                detached.add(name);
+            }
+        }
+        if (!detached.isEmpty()) {
+            log.info("Отключены секции transactions: {}", detached);
+        }
+        return detached;
+    }
+
+    public static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_SUFFIX);
+    }
+
+    // Helper methods
+
+    // Верхняя граница всех секций (начало месяца, с которого секций еще нет)
+    private Optional<YearMonth> upperBound() {
+        return jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> rs.getString(2)).stream()
+                .map(UPPER_BOUND::matcher)
+                .filter(Matcher::find)
+                .map(matcher -> YearMonth.from(LocalDateTime.parse(matcher.group(1), BOUND_FORMAT)))
+                .max(YearMonth::compareTo);
+    }
+}
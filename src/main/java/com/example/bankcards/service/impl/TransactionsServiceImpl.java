@@ -1,109 +1,343 @@
 package com.example.bankcards.service.impl;
 
+import com.example.bankcards.dto.requests.BatchTransferRequest;
 import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.BatchTransferResponse;
+import com.example.bankcards.dto.response.CursorPageResponse;
 import com.example.bankcards.dto.response.PageResponse;
 import com.example.bankcards.dto.response.TransactionResponse;
 import com.example.bankcards.entity.Card;
-import com.example.bankcards.entity.CardStatus;
 import com.example.bankcards.entity.Transactions;
-import com.example.bankcards.exception.CardNotActiveException;
-import com.example.bankcards.exception.InsufficientFundsException;
-import com.example.bankcards.util.TransactionMapper;
 import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.util.TransactionCursor;
+import com.example.bankcards.util.TransactionMapper;
 import com.example.bankcards.repository.TransactionRepository;
+import com.example.bankcards.repository.TransactionSearchFilter;
+import com.example.bankcards.service.PageTotal;
 import com.example.bankcards.service.TransactionsService;
-import jakarta.persistence.EntityNotFoundException;
+import com.example.bankcards.service.TransferMode;
+import com.example.bankcards.service.TransferStrategy;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 @Transactional
 public class TransactionsServiceImpl implements TransactionsService {
 
+    // Граница периода истории, когда to не задан: без условия на created_at запрос не смог бы отсечь секции
+    private static final Instant UNBOUNDED_TO = Instant.parse("9999-12-31T00:00:00Z");
+
     private final TransactionRepository transactionRepository;
-    private final CardRepository cardRepository;
     private final TransactionMapper transactionMapper;
+    private final List<TransferStrategy> transferStrategies;
+    private final TransferBatchProcessor transferBatchProcessor;
+    private final TransactionOwnerBackfill ownerBackfill;
+    private final TransactionArchive transactionArchive;
+    private final CardRepository cardRepository;
+
+    @Value("${app.transfer.mode:PESSIMISTIC}")
+    private TransferMode transferMode;
+
+    private TransferStrategy transferStrategy;
 
+    @PostConstruct
+    void selectTransferStrategy() {
+        transferStrategy = transferStrategies.stream()
+                .filter(strategy -> strategy.getMode() == transferMode)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Не найден обработчик режима перевода: " + transferMode));
+    }
+
+    /**
+     * Транзакцию открывает выбранная стратегия: оптимистическому режиму нужна отдельная транзакция на каждую попытку
+     */
     @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
     public TransactionResponse transferBetweenOwnCards(Long userId, TransferRequest request) {
+        return transferBetweenOwnCards(userId, request, response -> {
+        });
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TransactionResponse transferBetweenOwnCards(Long userId, TransferRequest request,
+                                                       Consumer<TransactionResponse> onRecorded) {
         // Проверка: карты должны быть разными
         if (request.getFromCardId().equals(request.getToCardId())) {
             throw new IllegalArgumentException("Нельзя переводить на ту же карту");
         }
 
-        // Получаем карты с блокировкой
-        Card fromCard = cardRepository.findByIdWithLock(request.getFromCardId())
-                .orElseThrow(() -> new EntityNotFoundException(
-                        "Карта отправителя не найдена: " + request.getFromCardId()));
+        return transferStrategy.transfer(userId, request, onRecorded);
+    }
+
+    @Override
+    public BatchTransferResponse transferBatch(Long userId, BatchTransferRequest request) {
+        List<TransferBatchProcessor.Command> commands = request.getTransfers().stream()
+                .map(transfer -> new TransferBatchProcessor.Command(userId, transfer))
+                .toList();
 
-        Card toCard = cardRepository.findByIdWithLock(request.getToCardId())
-                .orElseThrow(() -> new EntityNotFoundException(
-                        "Карта получателя не найдена: " + request.getToCardId()));
+        List<TransferBatchProcessor.Outcome> outcomes = transferBatchProcessor.process(commands);
 
-        // Проверка собственности обеих карт
-        if (!fromCard.getOwner().getId().equals(userId) || !toCard.getOwner().getId().equals(userId)) {
-            throw new IllegalArgumentException("Обе карты должны принадлежать вам");
+        List<BatchTransferResponse.BatchTransferItemResult> items = new ArrayList<>(outcomes.size());
+        int succeeded = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            TransferBatchProcessor.Outcome outcome = outcomes.get(i);
+            if (outcome.isSuccess()) {
+                succeeded++;
+                items.add(BatchTransferResponse.BatchTransferItemResult.builder()
+                        .index(i)
+                        .status("SUCCESS")
+                        .transaction(transactionMapper.toResponse(outcome.transaction()))
+                        .build());
+            } else {
+                items.add(BatchTransferResponse.BatchTransferItemResult.builder()
+                        .index(i)
+                        .status("FAILED")
+                        .error(outcome.error().getMessage())
+                        .build());
+            }
         }
 
-        // Проверка статуса карт
-        validateCardStatus(fromCard, "отправителя");
-        validateCardStatus(toCard, "получателя");
+        return BatchTransferResponse.builder()
+                .total(outcomes.size())
+                .succeeded(succeeded)
+                .failed(outcomes.size() - succeeded)
+                .items(items)
+                .build();
+    }
 
-        // Проверка достаточности средств
-        if (fromCard.getBalance().compareTo(request.getAmount()) < 0) {
-            throw new InsufficientFundsException(
-                    String.format("Недостаточно средств. Доступно: %s, требуется: %s",
-                            fromCard.getBalance(), request.getAmount())
-            );
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public PageResponse<TransactionResponse> getMyTransactions(Long userId, int page, int size,
+                                                               Instant from, Instant to, PageTotal pageTotal) {
+        validatePagination(page, size);
+        Instant start = periodStart(from);
+        Instant end = periodEnd(start, to);
+        if (pageTotal == PageTotal.NONE) {
+            return getMyTransactionsSlice(userId, page, size, start, end);
         }
 
-        // Выполняем перевод
-        fromCard.setBalance(fromCard.getBalance().subtract(request.getAmount()));
-        toCard.setBalance(toCard.getBalance().add(request.getAmount()));
+        // Порядок (created_at DESC, id DESC) задан в запросе; каждой ветке UNION ALL нужно (page + 1) * size строк
+        Pageable pageable = PageRequest.of(page, size);
+        long window = (long) (page + 1) * size;
+        boolean byOwner = ownerBackfill.isComplete();
+        Page<Transactions> transactionsPage = byOwner
+                ? transactionRepository.findAllByOwnerId(userId, start, end, window, pageable)
+                : transactionRepository.findAllByUserId(userId, start, end, window, pageable);
 
-        cardRepository.save(fromCard);
-        cardRepository.save(toCard);
+        // Период уходит в архив: к числу строк добавляются архивные, а если страница доходит до архива,
+        // она собирается слиянием первых (page + 1) * size строк БД и архива
+        if (!transactionArchive.overlaps(start, end)) {
+            return mapToPageResponse(transactionsPage);
+        }
+        TransactionArchive.CardFilter cards = TransactionArchive.CardFilter.of(cardRepository.findIdsByOwnerId(userId));
+        long total = transactionsPage.getTotalElements() + transactionArchive.count(cards, start, end);
+        List<Transactions> content = transactionsPage.getContent();
+        Instant oldestLoaded = content.size() == size ? content.get(size - 1).getCreatedAt() : null;
+        if (transactionArchive.isReachedBy(start, end, oldestLoaded)) {
+            int limit = Math.toIntExact(window);
+            List<Transactions> hot = byOwner
+                    ? transactionRepository.findFirstPageByOwnerId(userId, start, end, limit)
+                    : transactionRepository.findFirstPageByUserId(userId, start, end, limit);
+            List<Transactions> merged = mergeNewestFirst(hot, findArchived(cards, start, end, null, limit), limit);
+            content = merged.subList(Math.min((int) pageable.getOffset(), merged.size()), merged.size());
+        }
 
-        // Создаем запись транзакции
-        Transactions transaction = Transactions.builder()
-                .amount(request.getAmount())
-                .fromCard(fromCard)
-                .toCard(toCard)
-                .createdAt(Instant.now())
-                .build();
+        return mapToPageResponse(new PageImpl<>(content, pageable, total));
+    }
 
-        Transactions savedTransaction = transactionRepository.save(transaction);
+    /**
+     * История по курсору: глубокие страницы стоят столько же, сколько первая.
+     * Берется size + 1 строка, чтобы узнать о следующей странице без count(*)
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public CursorPageResponse<TransactionResponse> getMyTransactionsByCursor(Long userId, String cursor, int size,
+                                                                             Instant from, Instant to) {
+        validatePagination(0, size);
+        Instant start = periodStart(from);
+        Instant end = periodEnd(start, to);
+
+        int limit = size + 1;
+        List<Transactions> rows;
+        boolean byOwner = ownerBackfill.isComplete();
+        TransactionCursor position = null;
+        if (cursor == null || cursor.isEmpty()) {
+            rows = byOwner
+                    ? transactionRepository.findFirstPageByOwnerId(userId, start, end, limit)
+                    : transactionRepository.findFirstPageByUserId(userId, start, end, limit);
+        } else {
+            position = TransactionCursor.decode(cursor);
+            rows = byOwner
+                    ? transactionRepository.findPageByOwnerIdAfter(
+                            userId, start, end, position.createdAt(), position.id(), limit)
+                    : transactionRepository.findPageByUserIdAfter(
+                            userId, start, end, position.createdAt(), position.id(), limit);
+        }
 
-        return transactionMapper.toResponse(savedTransaction);
+        Instant oldestLoaded = rows.size() == limit ? rows.get(limit - 1).getCreatedAt() : null;
+        if (transactionArchive.isReachedBy(start, end, oldestLoaded)) {
+            TransactionArchive.CardFilter cards = TransactionArchive.CardFilter.of(cardRepository.findIdsByOwnerId(userId));
+            rows = mergeNewestFirst(rows, findArchived(cards, start, end, position, limit), limit);
+        }
+
+        boolean hasNext = rows.size() > size;
+        List<Transactions> page = hasNext ? rows.subList(0, size) : rows;
+        Transactions last = page.isEmpty() ? null : page.get(page.size() - 1);
+
+        return CursorPageResponse.<TransactionResponse>builder()
+                .content(page.stream().map(transactionMapper::toResponse).toList())
+                .size(page.size())
+                .nextCursor(hasNext ? new TransactionCursor(last.getCreatedAt(), last.getId()).encode() : null)
+                .hasNext(hasNext)
+                .build();
     }
 
+    /**
+     * Поиск по сумме, периоду и последним цифрам карты контрагента, по курсору, как история.
+     * Ищется только в transactions: строки, перенесенные в архив (старше hot-window), в поиск не попадают
+     */
     @Override
     @Transactional(readOnly = true)
-    public PageResponse<TransactionResponse> getMyTransactions(Long userId, int page, int size) {
-        validatePagination(page, size);
+    public CursorPageResponse<TransactionResponse> searchTransactions(Long userId, TransactionSearchFilter filter,
+                                                                      String cursor, int size) {
+        validatePagination(0, size);
+        if (filter.minAmount() != null && filter.maxAmount() != null
+                && filter.minAmount().compareTo(filter.maxAmount()) > 0) {
+            throw new IllegalArgumentException("Минимальная сумма не может быть больше максимальной");
+        }
+        Instant start = periodStart(filter.from());
+        Instant end = periodEnd(start, filter.to());
+        TransactionSearchFilter bounded = new TransactionSearchFilter(filter.minAmount(), filter.maxAmount(),
+                start, end, filter.counterpartLastFour());
+        TransactionCursor position = cursor == null || cursor.isEmpty() ? null : TransactionCursor.decode(cursor);
+
+        List<Transactions> rows = transactionRepository.search(
+                userId, ownerBackfill.isComplete(), bounded, position, size + 1);
 
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
-        Page<Transactions> transactionsPage = transactionRepository.findAllByUserId(userId, pageable);
+        boolean hasNext = rows.size() > size;
+        List<Transactions> page = hasNext ? rows.subList(0, size) : rows;
+        Transactions last = page.isEmpty() ? null : page.get(page.size() - 1);
 
-        return mapToPageResponse(transactionsPage);
+        return CursorPageResponse.<TransactionResponse>builder()
+                .content(page.stream().map(transactionMapper::toResponse).toList())
+                .size(page.size())
+                .nextCursor(hasNext ? new TransactionCursor(last.getCreatedAt(), last.getId()).encode() : null)
+                .hasNext(hasNext)
+                .build();
     }
 
     // Helper methods
 
-    private void validateCardStatus(Card card, String cardRole) {
-        if (card.getStatus() != CardStatus.ACTIVE) {
-            throw new CardNotActiveException(
-                    String.format("Карта %s неактивна. Статус: %s", cardRole, card.getStatus())
-            );
+    /**
+     * Страница по номеру без count(*): первые (page + 1) * size + 1 строк истории (с архивом, если страница
+     * до него доходит), из них берется страница, а лишняя строка говорит о следующей странице
+     */
+    private PageResponse<TransactionResponse> getMyTransactionsSlice(Long userId, int page, int size,
+                                                                     Instant start, Instant end) {
+        int offset = page * size;
+        int limit = Math.toIntExact((long) offset + size + 1);
+        List<Transactions> rows = ownerBackfill.isComplete()
+                ? transactionRepository.findFirstPageByOwnerId(userId, start, end, limit)
+                : transactionRepository.findFirstPageByUserId(userId, start, end, limit);
+
+        Instant oldestLoaded = rows.size() == limit ? rows.get(limit - 1).getCreatedAt() : null;
+        if (transactionArchive.isReachedBy(start, end, oldestLoaded)) {
+            TransactionArchive.CardFilter cards = TransactionArchive.CardFilter.of(cardRepository.findIdsByOwnerId(userId));
+            rows = mergeNewestFirst(rows, findArchived(cards, start, end, null, limit), limit);
+        }
+
+        boolean hasNext = rows.size() > offset + size;
+        List<Transactions> content = rows.subList(Math.min(offset, rows.size()), Math.min(offset + size, rows.size()));
+
+        return PageResponse.<TransactionResponse>builder()
+                .content(content.stream().map(transactionMapper::toResponse).toList())
+                .pageNumber(page)
+                .pageSize(size)
+                .first(page == 0)
+                .last(!hasNext)
+                .hasNext(hasNext)
+                .empty(content.isEmpty())
+                .build();
+    }
+
+    private Instant periodStart(Instant from) {
+        return from != null ? from : Instant.EPOCH;
+    }
+
+    private Instant periodEnd(Instant start, Instant to) {
+        Instant end = to != null ? to : UNBOUNDED_TO;
+        if (!start.isBefore(end)) {
+            throw new IllegalArgumentException("Начало периода должно быть раньше конца");
+        }
+        return end;
+    }
+
+    /**
+     * Архивные строки в виде несохраняемых сущностей Transactions с картами из БД — для общего маппинга истории
+     */
+    private List<Transactions> findArchived(TransactionArchive.CardFilter cards, Instant start, Instant end,
+                                            TransactionCursor after, int limit) {
+        List<TransactionArchive.Row> rows = transactionArchive.findNewestFirst(cards, start, end, after, limit);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Set<Long> cardIds = new HashSet<>();
+        rows.forEach(row -> {
+            cardIds.add(row.fromCardId());
+            cardIds.add(row.toCardId());
+        });
+        Map<Long, Card> cardsById = cardRepository.findAllById(cardIds).stream()
+                .collect(Collectors.toMap(Card::getId, Function.identity()));
+
+        return rows.stream()
+                .map(row -> Transactions.builder()
+                        .id(row.id())
+                        .amount(row.amount())
+                        .fromCard(cardsById.get(row.fromCardId()))
+                        .toCard(cardsById.get(row.toCardId()))
+                        .createdAt(row.createdAt())
+                        .build())
+                .toList();
+    }
+
+    // Строка, перенесенная в архив между чтением БД и архива, встречается в обоих списках — берется один раз
+    private List<Transactions> mergeNewestFirst(List<Transactions> a, List<Transactions> b, int limit) {
+        Comparator<Transactions> newestFirst = Comparator
+                .comparing((Transactions t) -> new TransactionCursor(t.getCreatedAt(), t.getId()), TransactionCursor.ORDER)
+                .reversed();
+        List<Transactions> merged = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < limit && (i < a.size() || j < b.size())) {
+            int order = j >= b.size() ? -1 : i >= a.size() ? 1 : newestFirst.compare(a.get(i), b.get(j));
+            if (order == 0) {
+                j++;
+            }
+            merged.add(order <= 0 ? a.get(i++) : b.get(j++));
         }
+        return merged;
     }
 
     private void validatePagination(int page, int size) {
@@ -126,6 +360,7 @@ public class TransactionsServiceImpl implements TransactionsService {
                 .totalPages(transactionsPage.getTotalPages())
                 .first(transactionsPage.isFirst())
                 .last(transactionsPage.isLast())
+                .hasNext(transactionsPage.hasNext())
                 .empty(transactionsPage.isEmpty())
                 .build();
     }
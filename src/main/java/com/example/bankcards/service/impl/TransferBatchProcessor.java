@@ -0,0 +1,120 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.util.TransactionMapper;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Выполняет набор переводов в одной транзакции БД.
+ * Все участвующие карты блокируются одним запросом в порядке возрастания id,
+ * переводы применяются последовательно к заблокированным сущностям,
+ * а записи транзакций вставляются пакетами JDBC при flush (hibernate.jdbc.batch_size).
+ * Отклоненный перевод не откатывает остальные: проверки выполняются до изменения баланса
+ */
+@Component
+@RequiredArgsConstructor
+public class TransferBatchProcessor {
+
+    private final CardRepository cardRepository;
+    private final TransferSupport transferSupport;
+    private final CardBalanceManager cardBalanceManager;
+    private final TransactionMapper transactionMapper;
+
+    @Transactional
+    public List<Outcome> process(List<Command> commands) {
+        TreeSet<Long> cardIds = new TreeSet<>();
+        for (Command command : commands) {
+            cardIds.add(command.request().getFromCardId());
+            cardIds.add(command.request().getToCardId());
+        }
+
+        Map<Long, Card> lockedCards = cardRepository.findAllByIdInWithLock(cardIds).stream()
+                .collect(Collectors.toMap(Card::getId, Function.identity()));
+
+        List<Outcome> outcomes = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            Transactions transaction;
+            try {
+                transaction = apply(command, lockedCards);
+            } catch (RuntimeException e) {
+                outcomes.add(Outcome.failure(e));
+                continue;
+            }
+            // Балансы перевода уже изменены, поэтому ошибка здесь откатывает весь пакет
+            if (command.onRecorded() != null) {
+                command.onRecorded().accept(transactionMapper.toResponse(transaction));
+            }
+            outcomes.add(Outcome.success(transaction));
+        }
+        return outcomes;
+    }
+
+    private Transactions apply(Command command, Map<Long, Card> lockedCards) {
+        TransferRequest request = command.request();
+
+        if (request.getFromCardId().equals(request.getToCardId())) {
+            throw new IllegalArgumentException("Нельзя переводить на ту же карту");
+        }
+
+        Card fromCard = Optional.ofNullable(lockedCards.get(request.getFromCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта отправителя не найдена: " + request.getFromCardId()));
+
+        Card toCard = Optional.ofNullable(lockedCards.get(request.getToCardId()))
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Карта получателя не найдена: " + request.getToCardId()));
+
+        transferSupport.validateOwnership(fromCard, toCard, command.userId());
+        transferSupport.validateCardStatus(fromCard, "отправителя");
+        transferSupport.validateCardStatus(toCard, "получателя");
+        cardBalanceManager.ensureAvailable(fromCard, request.getAmount());
+        transferSupport.validateFunds(fromCard, request.getAmount());
+
+        // Изменения балансов попадут в БД при flush вместе с остальными переводами пакета
+        fromCard.setBalance(fromCard.getBalance().subtract(request.getAmount()));
+        int creditShard = cardBalanceManager.credit(toCard, request.getAmount());
+
+        return transferSupport.record(fromCard, toCard, request.getAmount(), creditShard);
+    }
+
+    /**
+     * onRecorded (может быть null) вызывается с ответом в транзакции пакета после успешного перевода
+     */
+    public record Command(Long userId, TransferRequest request, Consumer<TransactionResponse> onRecorded) {
+
+        public Command(Long userId, TransferRequest request) {
+            this(userId, request, null);
+        }
+    }
+
+    public record Outcome(Transactions transaction, RuntimeException error) {
+
+        static Outcome success(Transactions transaction) {
+            return new Outcome(transaction, null);
+        }
+
+        static Outcome failure(RuntimeException error) {
+            return new Outcome(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
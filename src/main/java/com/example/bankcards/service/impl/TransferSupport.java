@@ -0,0 +1,75 @@
+package com.example.bankcards.service.impl;
+
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.exception.CardNotActiveException;
+import com.example.bankcards.exception.InsufficientFundsException;
+import com.example.bankcards.repository.TransactionRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Общие проверки и запись транзакции для всех режимов перевода
+ */
+@Component
+@RequiredArgsConstructor
+public class TransferSupport {
+
+    private final TransactionRepository transactionRepository;
+    private final CardMonthlyRollups cardMonthlyRollups;
+
+    public void validateOwnership(Card fromCard, Card toCard, Long userId) {
+        if (!fromCard.getOwner().getId().equals(userId) || !toCard.getOwner().getId().equals(userId)) {
+            throw new IllegalArgumentException("Обе карты должны принадлежать вам");
+        }
+    }
+
+    public void validateCardStatus(Card card, String cardRole) {
+        if (card.getStatus() != CardStatus.ACTIVE) {
+            throw new CardNotActiveException(
+                    String.format("Карта %s неактивна. Статус: %s", cardRole, card.getStatus())
+            );
+        }
+    }
+
+    public void validateFunds(Card card, BigDecimal amount) {
+        if (card.getBalance().compareTo(amount) < 0) {
+            throw new InsufficientFundsException(
+                    String.format("Недостаточно средств. Доступно: %s, требуется: %s",
+                            card.getBalance(), amount)
+            );
+        }
+    }
+
+    /**
+     * Создает запись транзакции в рамках текущей транзакции БД и добавляет перевод в месячные итоги обеих карт.
+     * creditShard — часть баланса получателя, в которую попало зачисление (результат CardBalanceManager.credit)
+     */
+    public Transactions record(Card fromCard, Card toCard, BigDecimal amount, int creditShard) {
+        return record(fromCard, fromCard.getOwner().getId(), toCard, toCard.getOwner().getId(), amount, creditShard);
+    }
+
+    /**
+     * То же по известным владельцам: карты могут быть ссылками getReferenceById, они не читаются
+     */
+    public Transactions record(Card fromCard, Long fromOwnerId, Card toCard, Long toOwnerId,
+                               BigDecimal amount, int creditShard) {
+        Transactions transaction = Transactions.builder()
+                .amount(amount)
+                .fromCard(fromCard)
+                .toCard(toCard)
+                .fromOwnerId(fromOwnerId)
+                .toOwnerId(toOwnerId)
+                .createdAt(Instant.now())
+                .build();
+
+        cardMonthlyRollups.recordTransfer(fromCard.getId(), toCard.getId(), creditShard, amount,
+                transaction.getCreatedAt());
+
+        return transactionRepository.save(transaction);
+    }
+}
@@ -4,12 +4,20 @@ import com.example.bankcards.dto.response.CardResponse;
 import com.example.bankcards.entity.Card;
 import org.springframework.stereotype.Component;
 
+import java.math.BigDecimal;
 import java.time.YearMonth;
 
 @Component
 public class CardMapper {
 
     public CardResponse toResponse(Card card) {
+        return toResponse(card, card.getBalance());
+    }
+
+    /**
+     * @param balance полный баланс карты (с учетом частей шардированного баланса)
+     */
+    public CardResponse toResponse(Card card, BigDecimal balance) {
         return CardResponse.builder()
                 .id(card.getId())
                 .maskedCardNumber(maskCardNumber(card.getLastFour()))
@@ -20,7 +28,7 @@ public class CardMapper {
                         .build())
                 .expiryDate(card.getExpiryDate())
                 .status(card.getStatus())
-                .balance(card.getBalance())
+                .balance(balance)
                 .isExpired(card.getExpiryDate().isBefore(YearMonth.now()))
                 .build();
     }
@@ -0,0 +1,56 @@
+package com.example.bankcards.util;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+import java.lang.reflect.Member;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Генератор UUID версии 7 (RFC 9562): 48 бит — время в миллисекундах от эпохи, 12 бит — счетчик внутри миллисекунды,
+ * 62 бита — случайные. Новые значения больше прежних, поэтому вставка идет в правый край индекса первичного ключа,
+ * а не в случайную страницу, как у UUID версии 4.
+ * <p>
+ * Время и счетчик хранятся в одном AtomicLong: значение только растет, в том числе при переводе часов назад
+ * и при переполнении счетчика (тогда время в идентификаторе немного опережает часы).
+ * Случайная часть берется из ThreadLocalRandom, поэтому идентификатор не годится как секрет
+ */
+public class TimeOrderedUuidGenerator implements BeforeExecutionGenerator {
+
+    private static final int COUNTER_BITS = 12;
+    private static final long VERSION_7 = 0x7000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_RFC = 0x8000000000000000L;
+
+    // (миллисекунды << 12) | счетчик последнего выданного идентификатора
+    private static final AtomicLong LAST = new AtomicLong();
+
+    public TimeOrderedUuidGenerator(TimeOrderedUuid config, Member member, CustomIdGeneratorCreationContext context) {
+    }
+
+    public static UUID next() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long stamp = LAST.accumulateAndGet(now, (last, current) -> Math.max(current, last + 1));
+
+        long msb = (stamp >>> COUNTER_BITS) << 16 | VERSION_7 | (stamp & ((1L << COUNTER_BITS) - 1));
+        long lsb = ThreadLocalRandom.current().nextLong() & VARIANT_MASK | VARIANT_RFC;
+        return new UUID(msb, lsb);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue,
+                           EventType eventType) {
+        return next();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+}
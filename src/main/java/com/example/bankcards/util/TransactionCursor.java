@@ -0,0 +1,43 @@
+package com.example.bankcards.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Позиция в истории транзакций (createdAt, id) для постраничного чтения по курсору.
+ * Клиент получает ее в виде непрозрачной строки Base64
+ */
+public record TransactionCursor(Instant createdAt, UUID id) {
+
+    /**
+     * Порядок истории по (createdAt, id). id сравниваются без знака, как uuid в PostgreSQL
+     */
+    public static final Comparator<TransactionCursor> ORDER = Comparator
+            .comparing(TransactionCursor::createdAt)
+            .thenComparing(TransactionCursor::id, (x, y) -> {
+                int high = Long.compareUnsigned(x.getMostSignificantBits(), y.getMostSignificantBits());
+                return high != 0 ? high : Long.compareUnsigned(x.getLeastSignificantBits(), y.getLeastSignificantBits());
+            });
+
+    private static final char SEPARATOR = '|';
+
+    public String encode() {
+        String raw = createdAt.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static TransactionCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            return new TransactionCursor(
+                    Instant.parse(raw.substring(0, separator)),
+                    UUID.fromString(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Некорректный курсор страницы");
+        }
+    }
+}
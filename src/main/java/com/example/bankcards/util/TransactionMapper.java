@@ -1,7 +1,6 @@
 package com.example.bankcards.util;
 
 import com.example.bankcards.dto.response.TransactionResponse;
-import com.example.bankcards.entity.Card;
 import com.example.bankcards.entity.Transactions;
 import org.springframework.stereotype.Component;
 
@@ -9,22 +8,29 @@ import org.springframework.stereotype.Component;
 public class TransactionMapper {
 
     public TransactionResponse toResponse(Transactions transaction) {
+        return toResponse(transaction, transaction.getFromCard().getLastFour(), transaction.getToCard().getLastFour());
+    }
+
+    /**
+     * Ответ по известным последним цифрам карт: карты транзакции не читаются
+     */
+    public TransactionResponse toResponse(Transactions transaction, String fromLastFour, String toLastFour) {
         return TransactionResponse.builder()
                 .id(transaction.getId())
                 .amount(transaction.getAmount())
-                .fromCard(toCardInfo(transaction.getFromCard()))
-                .toCard(toCardInfo(transaction.getToCard()))
+                .fromCard(toCardInfo(transaction.getFromCard().getId(), fromLastFour))
+                .toCard(toCardInfo(transaction.getToCard().getId(), toLastFour))
                 .createdAt(transaction.getCreatedAt())
                 .transactionType("TRANSFER_BETWEEN_OWN_CARDS")
                 .status("SUCCESS")
                 .build();
     }
 
-    private TransactionResponse.TransactionCardInfo toCardInfo(Card card) {
+    private TransactionResponse.TransactionCardInfo toCardInfo(Long cardId, String lastFour) {
         return TransactionResponse.TransactionCardInfo.builder()
-                .cardId(card.getId())
-                .maskedCardNumber(maskCardNumber(card.getLastFour()))
-                .lastFour(card.getLastFour())
+                .cardId(cardId)
+                .maskedCardNumber(maskCardNumber(lastFour))
+                .lastFour(lastFour)
                 .build();
     }
 
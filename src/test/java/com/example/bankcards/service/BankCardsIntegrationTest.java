@@ -1,13 +1,30 @@
 package com.example.bankcards.service;
 
 import com.example.bankcards.dto.requests.AuthRequest;
+import com.example.bankcards.dto.requests.BatchTransferRequest;
 import com.example.bankcards.dto.requests.RegisterAdminRequest;
 import com.example.bankcards.dto.requests.TransferRequest;
 import com.example.bankcards.dto.response.*;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardBalanceCheckpoint;
+import com.example.bankcards.entity.CardMonthlyRollup;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.IdempotencyRecord;
+import com.example.bankcards.entity.IdempotencyStatus;
+import com.example.bankcards.entity.Role;
+import com.example.bankcards.entity.Transactions;
+import com.example.bankcards.entity.User;
+import com.example.bankcards.repository.AsyncTransferRepository;
+import com.example.bankcards.repository.CardBalanceCheckpointRepository;
+import com.example.bankcards.repository.CardMonthlyRollupRepository;
 import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.IdempotencyRecordRepository;
+import com.example.bankcards.repository.TransactionArchiveSegmentRepository;
 import com.example.bankcards.repository.TransactionRepository;
 import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.impl.BalanceCheckpointJob;
+import com.example.bankcards.service.impl.TransactionArchiver;
+import com.example.bankcards.service.impl.TransactionOwnerBackfill;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,10 +35,29 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -46,6 +82,30 @@ class BankCardsIntegrationTest {
     @Autowired
     private TransactionRepository transactionRepository;
 
+    @Autowired
+    private BalanceCheckpointJob balanceCheckpointJob;
+
+    @Autowired
+    private CardBalanceCheckpointRepository cardBalanceCheckpointRepository;
+
+    @Autowired
+    private TransactionOwnerBackfill transactionOwnerBackfill;
+
+    @Autowired
+    private TransactionArchiver transactionArchiver;
+
+    @Autowired
+    private TransactionArchiveSegmentRepository transactionArchiveSegmentRepository;
+
+    @Autowired
+    private CardMonthlyRollupRepository cardMonthlyRollupRepository;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    private AsyncTransferRepository asyncTransferRepository;
+
     @Value("${app.admin.registration.code:ADMIN_SECRET_2024}")
     private String adminCode;
 
@@ -59,6 +119,8 @@ class BankCardsIntegrationTest {
     void setUp() {
         // Clean database before each test
         transactionRepository.deleteAll();
+        transactionArchiveSegmentRepository.deleteAll();
+        cardMonthlyRollupRepository.deleteAll();
         cardRepository.deleteAll();
         userRepository.deleteAll();
         // Reset static tokens - they become invalid after DB cleanup
@@ -694,8 +756,1197 @@ class BankCardsIntegrationTest {
                 .andExpect(status().isForbidden());
     }
 
+    // ==================== BATCH TRANSFER TESTS ====================
+
+    @Test
+    @Order(29)
+    @DisplayName("29. Пакет переводов: успешные применяются, ошибочные отклоняются поштучно")
+    void testBatchTransfer_PartialSuccess() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "10000.00");
+
+        BatchTransferRequest batchRequest = BatchTransferRequest.builder()
+                .transfers(java.util.List.of(
+                        TransferRequest.builder().fromCardId(cardId1).toCardId(cardId2)
+                                .amount(new BigDecimal("3000.00")).build(),
+                        TransferRequest.builder().fromCardId(cardId1).toCardId(cardId2)
+                                .amount(new BigDecimal("9000.00")).build(),
+                        TransferRequest.builder().fromCardId(cardId2).toCardId(cardId1)
+                                .amount(new BigDecimal("1000.00")).build(),
+                        TransferRequest.builder().fromCardId(cardId1).toCardId(cardId1)
+                                .amount(new BigDecimal("100.00")).build()))
+                .build();
+
+        mockMvc.perform(post("/api/v1/transactions/transfer/batch")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(batchRequest)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.total").value(4))
+                .andExpect(jsonPath("$.data.succeeded").value(2))
+                .andExpect(jsonPath("$.data.failed").value(2))
+                .andExpect(jsonPath("$.data.items[0].status").value("SUCCESS"))
+                .andExpect(jsonPath("$.data.items[1].status").value("FAILED"))
+                .andExpect(jsonPath("$.data.items[2].status").value("SUCCESS"))
+                .andExpect(jsonPath("$.data.items[3].status").value("FAILED"));
+
+        BigDecimal balance1 = cardRepository.findById(cardId1).get().getBalance();
+        BigDecimal balance2 = cardRepository.findById(cardId2).get().getBalance();
+
+        assertThat(balance1).isEqualByComparingTo(new BigDecimal("8000.00"));
+        assertThat(balance2).isEqualByComparingTo(new BigDecimal("2000.00"));
+        assertThat(transactionRepository.count()).isEqualTo(2);
+    }
+
+    // ==================== IDEMPOTENCY TESTS ====================
+
+    @Test
+    @Order(30)
+    @DisplayName("30. Повтор перевода с тем же Idempotency-Key не списывает деньги повторно")
+    void testIdempotentTransfer_ReplayReturnsSameResult() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "10000.00");
+
+        TransferRequest transferRequest = TransferRequest.builder()
+                .fromCardId(cardId1)
+                .toCardId(cardId2)
+                .amount(new BigDecimal("2500.00"))
+                .build();
+
+        MvcResult first = mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .header("Idempotency-Key", "retry-key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transferRequest)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        MvcResult replay = mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .header("Idempotency-Key", "retry-key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transferRequest)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String firstId = objectMapper.readTree(first.getResponse().getContentAsString()).at("/data/id").asText();
+        String replayId = objectMapper.readTree(replay.getResponse().getContentAsString()).at("/data/id").asText();
+        assertThat(replayId).isEqualTo(firstId);
+
+        BigDecimal fromBalance = cardRepository.findById(cardId1).get().getBalance();
+        assertThat(fromBalance).isEqualByComparingTo(new BigDecimal("7500.00"));
+        assertThat(transactionRepository.count()).isEqualTo(1);
+
+        // Тот же ключ с другим телом запроса отклоняется
+        transferRequest.setAmount(new BigDecimal("100.00"));
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .header("Idempotency-Key", "retry-key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transferRequest)))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    // ==================== SHARDED BALANCE TESTS ====================
+
+    @Test
+    @Order(31)
+    @DisplayName("31. Шардированный баланс: зачисления в части, списание переносит части в карту")
+    void testShardedBalance_CreditAndDebit() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "10000.00");
+
+        mockMvc.perform(post("/api/v1/cards/admin/" + cardId2 + "/balance-shards")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("shards", "4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.balance").value(0));
+
+        topUpCard(cardId2, "500.00");
+
+        TransferRequest toSharded = TransferRequest.builder()
+                .fromCardId(cardId1)
+                .toCardId(cardId2)
+                .amount(new BigDecimal("3000.00"))
+                .build();
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(toSharded)))
+                .andExpect(status().isOk());
+
+        // Основная строка карты не менялась, деньги лежат в частях баланса
+        assertThat(cardRepository.findById(cardId2).get().getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/balance")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(3500.00));
+
+        TransferRequest fromSharded = TransferRequest.builder()
+                .fromCardId(cardId2)
+                .toCardId(cardId1)
+                .amount(new BigDecimal("3200.00"))
+                .build();
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(fromSharded)))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/balance")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(jsonPath("$.balance").value(300.00));
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(jsonPath("$.balance").value(10200.00));
+    }
+
+    // ==================== ASYNC TRANSFER TESTS ====================
+
+    @Test
+    @Order(32)
+    @DisplayName("32. Асинхронный перевод: 202 с id, затем статус COMPLETED или FAILED")
+    void testAsyncTransfer_SubmitAndPoll() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+
+        String completedId = submitAsyncTransfer(cardId1, cardId2, "400.00");
+        String failedId = submitAsyncTransfer(cardId1, cardId2, "5000.00");
+
+        awaitAsyncTransfer(completedId)
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.transaction.amount").value(400.00));
+        awaitAsyncTransfer(failedId)
+                .andExpect(jsonPath("$.status").value("FAILED"))
+                .andExpect(jsonPath("$.error").exists());
+
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(jsonPath("$.balance").value(600.00));
+    }
+
+    // ==================== RECONCILIATION TESTS ====================
+
+    @Test
+    @Order(33)
+    @DisplayName("33. Сверка: балансы совпадают с историей, ручная правка баланса попадает в расхождения")
+    void testReconciliation_DetectsMismatch() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+
+        TransferRequest request = TransferRequest.builder()
+                .fromCardId(cardId1)
+                .toCardId(cardId2)
+                .amount(new BigDecimal("250.00"))
+                .build();
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk());
+
+        Long cleanRunId = startReconciliation();
+        awaitReconciliation(cleanRunId)
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.cardsChecked").value(2))
+                .andExpect(jsonPath("$.mismatches").value(0));
+
+        // Баланс изменен в обход истории операций
+        var card = cardRepository.findById(cardId2).orElseThrow();
+        card.setBalance(card.getBalance().add(new BigDecimal("10.00")));
+        cardRepository.save(card);
+
+        Long dirtyRunId = startReconciliation();
+        awaitReconciliation(dirtyRunId)
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.mismatches").value(1));
+
+        mockMvc.perform(get("/api/v1/admin/reconciliation/runs/" + dirtyRunId + "/mismatches")
+                        .header("Authorization", "Bearer " + adminToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].cardId").value(cardId2))
+                .andExpect(jsonPath("$.content[0].expectedBalance").value(250.00))
+                .andExpect(jsonPath("$.content[0].difference").value(10.00));
+    }
+
+    // ==================== BALANCE CHECKPOINT TESTS ====================
+
+    @Test
+    @Order(34)
+    @DisplayName("34. Баланс на момент времени: от контрольной точки и без нее")
+    void testBalanceAt_UsesCheckpoints() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        Thread.sleep(10);
+        Instant afterTopUp = Instant.now();
+        Thread.sleep(10);
+
+        transferForCheckpoint("300.00");
+        Thread.sleep(10);
+        Instant boundary = Instant.now();
+        balanceCheckpointJob.buildCheckpoints(boundary);
+        Thread.sleep(10);
+
+        transferForCheckpoint("100.00");
+        Instant afterSecondTransfer = Instant.now();
+
+        // Раньше любой контрольной точки — сумма всей истории до момента
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("at", afterTopUp.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(1000.00))
+                .andExpect(jsonPath("$.asOf").exists());
+
+        // Точно в момент контрольной точки и после нее
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("at", boundary.toString()))
+                .andExpect(jsonPath("$.balance").value(700.00));
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/balance")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("at", afterSecondTransfer.toString()))
+                .andExpect(jsonPath("$.balance").value(400.00));
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(jsonPath("$.balance").value(600.00))
+                .andExpect(jsonPath("$.asOf").doesNotExist());
+    }
+
+    // ==================== CURSOR PAGINATION TESTS ====================
+
+    @Test
+    @Order(35)
+    @DisplayName("35. История по курсору: все транзакции без повторов, без totalElements")
+    void testTransactionHistory_CursorPagination() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        for (int i = 0; i < 5; i++) {
+            transferForCheckpoint("10.00");
+        }
+
+        Set<String> seen = new LinkedHashSet<>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            MvcResult result = mockMvc.perform(get("/api/v1/transactions/my/cursor")
+                            .header("Authorization", "Bearer " + userToken)
+                            .param("size", "2")
+                            .param("cursor", cursor))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.totalElements").doesNotExist())
+                    .andReturn();
+
+            var body = objectMapper.readTree(result.getResponse().getContentAsString());
+            body.path("content").forEach(item -> seen.add(item.path("id").asText()));
+            cursor = body.path("nextCursor").isNull() ? null : body.path("nextCursor").asText();
+            pages++;
+        }
+
+        assertThat(seen).hasSize(5);
+        assertThat(pages).isEqualTo(3);
+
+        mockMvc.perform(get("/api/v1/transactions/my/cursor")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // ==================== TRANSACTION OWNER TESTS ====================
+
+    @Test
+    @Order(36)
+    @DisplayName("36. Переводы пишутся с владельцами, старые строки заполняются фоновой задачей")
+    void testTransactionOwners_WrittenAndBackfilled() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+
+        assertThat(transactionRepository.findAll())
+                .allSatisfy(t -> {
+                    assertThat(t.getFromOwnerId()).isEqualTo(userId);
+                    assertThat(t.getToOwnerId()).isEqualTo(userId);
+                });
+
+        // Строки, записанные до появления колонок
+        List<Transactions> legacy = transactionRepository.findAll();
+        legacy.forEach(t -> {
+            t.setFromOwnerId(null);
+            t.setToOwnerId(null);
+        });
+        transactionRepository.saveAll(legacy);
+
+        assertThat(transactionOwnerBackfill.backfillAll()).isEqualTo(2);
+        assertThat(transactionOwnerBackfill.isComplete()).isTrue();
+        assertThat(transactionRepository.findAll())
+                .allSatisfy(t -> {
+                    assertThat(t.getFromOwnerId()).isEqualTo(userId);
+                    assertThat(t.getToOwnerId()).isEqualTo(userId);
+                });
+
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(2))
+                .andExpect(jsonPath("$.content[0].amount").value(20.00));
+    }
+
+    // ==================== CARD HISTORY TESTS ====================
+
+    @Test
+    @Order(37)
+    @DisplayName("37. История карты по курсору: списания и зачисления с картой-контрагентом")
+    void testCardTransactions_CursorPagination() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+        TransferRequest back = TransferRequest.builder()
+                .fromCardId(cardId2)
+                .toCardId(cardId1)
+                .amount(new BigDecimal("5.00"))
+                .build();
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(back)))
+                .andExpect(status().isOk());
+
+        List<String> directions = new ArrayList<>();
+        String cursor = null;
+        do {
+            var request = get("/api/v1/cards/my/" + cardId1 + "/transactions")
+                    .header("Authorization", "Bearer " + userToken)
+                    .param("size", "2");
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            MvcResult result = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            var body = objectMapper.readTree(result.getResponse().getContentAsString());
+            body.path("content").forEach(item -> {
+                assertThat(item.path("counterpartCardId").asLong()).isEqualTo(cardId2);
+                directions.add(item.path("direction").asText());
+            });
+            cursor = body.path("nextCursor").isNull() ? null : body.path("nextCursor").asText();
+        } while (cursor != null);
+
+        // Новые первыми: возврат 5.00, затем два списания
+        assertThat(directions).containsExactly("INCOMING", "OUTGOING", "OUTGOING");
+
+        mockMvc.perform(get("/api/v1/cards/my/999999/transactions")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isNotFound());
+    }
+
+    // ==================== EXPORT TESTS ====================
+
+    @Test
+    @Order(38)
+    @DisplayName("38. Выгрузка истории в NDJSON и CSV с фильтром по периоду")
+    void testExportTransactions_NdjsonAndCsv() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        Instant between = Instant.now();
+        Thread.sleep(5);
+        transferForCheckpoint("20.00");
+
+        String ndjson = export("NDJSON", null);
+        assertThat(ndjson.lines()).hasSize(2);
+        var firstRow = objectMapper.readTree(ndjson.lines().findFirst().orElseThrow());
+        assertThat(firstRow.path("amount").decimalValue()).isEqualByComparingTo("10.00");
+        assertThat(firstRow.path("fromCardId").asLong()).isEqualTo(cardId1);
+
+        String csv = export("CSV", between);
+        assertThat(csv.lines()).hasSize(2);
+        assertThat(csv.lines().findFirst().orElseThrow()).isEqualTo("id,createdAt,amount,fromCardId,toCardId");
+        assertThat(csv.lines().skip(1).findFirst().orElseThrow()).contains(",20.00," + cardId1 + "," + cardId2);
+
+        mockMvc.perform(get("/api/v1/transactions/my/export")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("from", between.toString())
+                        .param("to", between.toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    // ==================== HISTORY PERIOD TESTS ====================
+
+    @Test
+    @Order(39)
+    @DisplayName("39. История за период [from, to) в постраничном режиме и по курсору")
+    void testTransactionHistory_Period() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        Thread.sleep(5);
+        Instant between = Instant.now();
+        Thread.sleep(5);
+        transferForCheckpoint("20.00");
+
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("from", between.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(20.00));
+
+        mockMvc.perform(get("/api/v1/transactions/my/cursor")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("cursor", "")
+                        .param("to", between.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(10.00));
+
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("from", between.toString())
+                        .param("to", between.toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    // ==================== ARCHIVE TESTS ====================
+
+    @Test
+    @Order(40)
+    @DisplayName("40. Архив: старые транзакции уходят из БД, история, выгрузка, баланс и сверка их видят")
+    void testTransactionArchive_ReadsThroughHistory() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+        Thread.sleep(5);
+        Instant cutoff = Instant.now();
+        Thread.sleep(5);
+        transferForCheckpoint("30.00");
+
+        assertThat(transactionArchiver.archiveBefore(cutoff)).isEqualTo(2);
+        assertThat(transactionRepository.count()).isEqualTo(1);
+
+        // Страница по номеру: число строк с архивом, вторая страница целиком из архива
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(3))
+                .andExpect(jsonPath("$.content[0].amount").value(30.00))
+                .andExpect(jsonPath("$.content[1].amount").value(20.00))
+                .andExpect(jsonPath("$.content[1].fromCard.cardId").value(cardId1));
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("page", "1")
+                        .param("size", "2"))
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(10.00));
+
+        // Курсор переходит из БД в архив
+        MvcResult firstPage = mockMvc.perform(get("/api/v1/transactions/my/cursor")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("cursor", "")
+                        .param("size", "2"))
+                .andExpect(jsonPath("$.content[1].amount").value(20.00))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andReturn();
+        String nextCursor = objectMapper.readTree(firstPage.getResponse().getContentAsString())
+                .path("nextCursor").asText();
+        mockMvc.perform(get("/api/v1/transactions/my/cursor")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("cursor", nextCursor)
+                        .param("size", "2"))
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(10.00))
+                .andExpect(jsonPath("$.hasNext").value(false));
+
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/transactions")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(jsonPath("$.content.length()").value(3))
+                .andExpect(jsonPath("$.content[2].amount").value(10.00))
+                .andExpect(jsonPath("$.content[2].direction").value("INCOMING"))
+                .andExpect(jsonPath("$.content[2].counterpartCardId").value(cardId1));
+
+        // Выгрузка по возрастанию: сначала архивные строки
+        String[] lines = export("NDJSON", null).split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(lines[0]).contains("\"amount\":10.00");
+        assertThat(lines[2]).contains("\"amount\":30.00");
+
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/balance")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("at", Instant.now().toString()))
+                .andExpect(jsonPath("$.balance").value(60.00));
+
+        Long runId = startReconciliation();
+        awaitReconciliation(runId)
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.cardsChecked").value(2))
+                .andExpect(jsonPath("$.mismatches").value(0));
+    }
+
+    // ==================== STATEMENT ROLLUP TESTS ====================
+
+    @Test
+    @Order(41)
+    @DisplayName("41. Месячная выписка: итоги обновляются с операциями и совпадают с пересборкой из истории")
+    void testCardStatement_RollupsMatchRebuild() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+        String month = YearMonth.now(ZoneOffset.UTC).toString();
+
+        assertStatement(cardId1, month, 1000.00, 1, 30.00, 2);
+        // Без month — текущий месяц
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/statements")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.month").value(month))
+                .andExpect(jsonPath("$.incomingAmount").value(30.00))
+                .andExpect(jsonPath("$.incomingCount").value(2));
+
+        // Месяц без операций — нули
+        assertStatement(cardId1, "2000-01", 0, 0, 0, 0);
+
+        // Пересборка из БД и архива дает те же итоги
+        transactionArchiver.archiveBefore(Instant.now());
+        cardMonthlyRollupRepository.deleteAll();
+        awaitStatementRebuild(startStatementRebuild())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.completedRanges").value(2))
+                .andExpect(jsonPath("$.rollups").value(2));
+
+        assertStatement(cardId1, month, 1000.00, 1, 30.00, 2);
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId2 + "/statements")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("month", month))
+                .andExpect(jsonPath("$.incomingAmount").value(30.00))
+                .andExpect(jsonPath("$.incomingCount").value(2))
+                .andExpect(jsonPath("$.outgoingCount").value(0));
+    }
+
+    // ==================== PAGINATION WITHOUT TOTAL TESTS ====================
+
+    @Test
+    @Order(42)
+    @DisplayName("42. withTotal=false: страницы без общего числа с hasNext, approximateTotal без статистики — точное число")
+    void testPagination_WithoutTotal() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+        transferForCheckpoint("30.00");
+
+        mockMvc.perform(get("/api/v1/cards/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("size", "1")
+                        .param("withTotal", "false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.totalElements").doesNotExist())
+                .andExpect(jsonPath("$.totalPages").doesNotExist());
+        mockMvc.perform(get("/api/v1/cards/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("page", "1")
+                        .param("size", "1")
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.hasNext").value(false))
+                .andExpect(jsonPath("$.last").value(true));
+
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("size", "2")
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.content.length()").value(2))
+                .andExpect(jsonPath("$.content[0].amount").value(30.00))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+        mockMvc.perform(get("/api/v1/transactions/my")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("page", "1")
+                        .param("size", "2")
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(10.00))
+                .andExpect(jsonPath("$.hasNext").value(false));
+
+        mockMvc.perform(get("/api/v1/cards/admin/all")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("size", "1")
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+        mockMvc.perform(get("/api/v1/cards/admin/all")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("size", "1")
+                        .param("approximateTotal", "true"))
+                .andExpect(jsonPath("$.totalElements").value(2))
+                .andExpect(jsonPath("$.totalPages").value(2))
+                .andExpect(jsonPath("$.totalEstimated").doesNotExist());
+    }
+
+    // ==================== TRANSACTION ID TESTS ====================
+
+    @Test
+    @Order(43)
+    @DisplayName("43. Идентификаторы транзакций — UUID версии 7, возрастают в порядке записи")
+    void testTransactionIds_AreTimeOrdered() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        for (int i = 1; i <= 5; i++) {
+            transferForCheckpoint(i + ".00");
+        }
+
+        List<UUID> ids = transactionRepository.findAll().stream()
+                .sorted(Comparator.comparing(Transactions::getCreatedAt))
+                .map(Transactions::getId)
+                .toList();
+
+        assertThat(ids).hasSize(5);
+        assertThat(ids).allSatisfy(id -> assertThat(id.version()).isEqualTo(7));
+        assertThat(ids).isSorted();
+    }
+
+    // ==================== TRANSACTION SEARCH TESTS ====================
+
+    @Test
+    @Order(44)
+    @DisplayName("44. Поиск транзакций по сумме, периоду и карте контрагента, по курсору")
+    void testTransactionSearch_Filters() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("10.00");
+        transferForCheckpoint("20.00");
+        transferForCheckpoint("30.00");
+        transferForCheckpoint("40.00");
+        String counterpart = cardRepository.findById(cardId2).get().getLastFour();
+        String otherLastFour = Stream.of("1111", "2222", "3333")
+                .filter(lastFour -> !lastFour.equals(counterpart)
+                        && !lastFour.equals(cardRepository.findById(cardId1).get().getLastFour()))
+                .findFirst()
+                .orElseThrow();
+
+        MvcResult firstPage = mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("minAmount", "15")
+                        .param("maxAmount", "35")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(30.00))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andReturn();
+        String nextCursor = objectMapper.readTree(firstPage.getResponse().getContentAsString())
+                .path("nextCursor").asText();
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("minAmount", "15")
+                        .param("maxAmount", "35")
+                        .param("size", "1")
+                        .param("cursor", nextCursor))
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].amount").value(20.00))
+                .andExpect(jsonPath("$.hasNext").value(false));
+
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("counterpartLastFour", counterpart)
+                        .param("from", Instant.now().minus(Duration.ofDays(1)).toString()))
+                .andExpect(jsonPath("$.content.length()").value(4));
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("counterpartLastFour", otherLastFour))
+                .andExpect(jsonPath("$.content.length()").value(0));
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("from", Instant.now().plus(Duration.ofDays(1)).toString()))
+                .andExpect(jsonPath("$.content.length()").value(0))
+                .andExpect(jsonPath("$.hasNext").value(false));
+
+        // Поиск для поддержки — по id пользователя
+        mockMvc.perform(get("/api/v1/transactions/admin/search")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("userId", userId.toString())
+                        .param("maxAmount", "20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(2));
+        mockMvc.perform(get("/api/v1/transactions/admin/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("userId", userId.toString()))
+                .andExpect(status().isForbidden());
+
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("minAmount", "50")
+                        .param("maxAmount", "10"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/transactions/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("counterpartLastFour", "12a4"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // ==================== CARD LISTING QUERY COUNT TESTS ====================
+
+    @Test
+    @Order(45)
+    @DisplayName("45. Списки карт выполняют одно и то же число запросов при любом размере страницы")
+    void testCardListings_FixedStatementCount() throws Exception {
+        setupAdminAndUser();
+        for (int i = 1; i <= 3; i++) {
+            User owner = userRepository.save(User.builder()
+                    .phoneNumber("+7702000000" + i)
+                    .username("listing_owner_" + i)
+                    .password("password")
+                    .role(Role.USER)
+                    .build());
+            createCard(owner.getId());
+        }
+        // Карты пользователя — самые новые, и у всех шардированный баланс: он есть на любой странице
+        for (int i = 0; i < 4; i++) {
+            Long cardId = createCard(userId);
+            mockMvc.perform(post("/api/v1/cards/admin/" + cardId + "/balance-shards")
+                            .header("Authorization", "Bearer " + adminToken)
+                            .param("shards", "2"))
+                    .andExpect(status().isOk());
+            topUpCard(cardId, "500.00");
+        }
+
+        List<Listing> listings = List.of(
+                new Listing("/api/v1/cards/my", userToken, "withTotal", "true", 5),
+                new Listing("/api/v1/cards/my", userToken, "withTotal", "false", 4),
+                new Listing("/api/v1/cards/my/search", userToken, "withTotal", "true", 5),
+                new Listing("/api/v1/cards/my/search", userToken, "withTotal", "false", 4),
+                new Listing("/api/v1/cards/admin/all", adminToken, "withTotal", "true", 4),
+                new Listing("/api/v1/cards/admin/all", adminToken, "withTotal", "false", 3),
+                new Listing("/api/v1/cards/admin/all", adminToken, "approximateTotal", "true", 4));
+
+        // Обе страницы не доходят до конца списка: count(*) для страниц с общим числом выполняется в обоих случаях
+        for (Listing listing : listings) {
+            int size = listing.path().contains("admin") ? 6 : 3;
+            long single = countStatements(listing, 1);
+            long full = countStatements(listing, size);
+
+            assertThat(full).as(listing.toString()).isEqualTo(single);
+            assertThat(full).as(listing.toString()).isEqualTo(listing.statements());
+        }
+    }
+
+    // ==================== CARD LAST FOUR SEARCH TESTS ====================
+
+    @Test
+    @Order(46)
+    @DisplayName("46. Поиск карт по началу последних цифр: свои карты и все карты для администратора")
+    void testCardSearch_ByLastFourPrefix() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        User other = userRepository.save(User.builder()
+                .phoneNumber("+77030000001")
+                .username("search_other_owner")
+                .password("password")
+                .role(Role.USER)
+                .build());
+        Long otherCardId = createCard(other.getId());
+        String lastFour = cardRepository.findById(cardId1).get().getLastFour();
+        String otherLastFour = cardRepository.findById(otherCardId).get().getLastFour();
+
+        mockMvc.perform(get("/api/v1/cards/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("lastFour", lastFour.substring(0, 2)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[*].id", hasItem(cardId1.intValue())))
+                .andExpect(jsonPath("$.content[*].lastFour", everyItem(startsWith(lastFour.substring(0, 2)))));
+        mockMvc.perform(get("/api/v1/cards/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("lastFour", lastFour)
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.content[*].id", hasItem(cardId1.intValue())))
+                .andExpect(jsonPath("$.content[*].lastFour", everyItem(is(lastFour))));
+        // Чужие карты в поиск пользователя не попадают
+        mockMvc.perform(get("/api/v1/cards/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("lastFour", otherLastFour))
+                .andExpect(jsonPath("$.content[*].id", not(hasItem(otherCardId.intValue()))));
+
+        mockMvc.perform(get("/api/v1/cards/admin/search")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("lastFour", otherLastFour))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[*].id", hasItem(otherCardId.intValue())))
+                .andExpect(jsonPath("$.content[*].lastFour", everyItem(is(otherLastFour))));
+        mockMvc.perform(get("/api/v1/cards/admin/search")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("lastFour", otherLastFour.substring(0, 1))
+                        .param("withTotal", "false"))
+                .andExpect(jsonPath("$.content[*].id", hasItem(otherCardId.intValue())))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+        mockMvc.perform(get("/api/v1/cards/admin/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("lastFour", otherLastFour))
+                .andExpect(status().isForbidden());
+
+        mockMvc.perform(get("/api/v1/cards/my/search")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("lastFour", "1%"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/cards/admin/search")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("lastFour", "12345"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // ==================== IDEMPOTENCY RECOVERY TESTS ====================
+
+    @Test
+    @Order(47)
+    @DisplayName("47. Брошенный захват Idempotency-Key снимается по сроку, ответ сохраняется вместе с переводом")
+    void testIdempotentTransfer_AbandonedClaimIsReleased() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+
+        TransferRequest transferRequest = TransferRequest.builder()
+                .fromCardId(cardId1)
+                .toCardId(cardId2)
+                .amount(new BigDecimal("100.00"))
+                .build();
+
+        // Захват только что создан — запрос с этим ключом еще может выполняться
+        idempotencyRecordRepository.save(IdempotencyRecord.builder()
+                .userId(userId)
+                .idempotencyKey("fresh-claim")
+                .requestHash("hash")
+                .status(IdempotencyStatus.IN_PROGRESS)
+                .createdAt(Instant.now())
+                .build());
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .header("Idempotency-Key", "fresh-claim")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transferRequest)))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value("Запрос с этим ключом идемпотентности еще выполняется"));
+
+        // Узел упал до фиксации перевода: захват старше in-progress-timeout, перевода нет
+        idempotencyRecordRepository.save(IdempotencyRecord.builder()
+                .userId(userId)
+                .idempotencyKey("abandoned-claim")
+                .requestHash("hash")
+                .status(IdempotencyStatus.IN_PROGRESS)
+                .createdAt(Instant.now().minus(Duration.ofHours(1)))
+                .build());
+        MvcResult result = mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .header("Idempotency-Key", "abandoned-claim")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transferRequest)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String transactionId = objectMapper.readTree(result.getResponse().getContentAsString()).at("/data/id").asText();
+        IdempotencyRecord completed = idempotencyRecordRepository
+                .findByUserIdAndIdempotencyKey(userId, "abandoned-claim").orElseThrow();
+        assertThat(completed.getStatus()).isEqualTo(IdempotencyStatus.COMPLETED);
+        assertThat(completed.getResponseBody()).contains(transactionId);
+        assertThat(cardRepository.findById(cardId1).get().getBalance()).isEqualByComparingTo("900.00");
+        assertThat(transactionRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    @Order(48)
+    @DisplayName("48. Асинхронный перевод, на котором откатывается пачка, не задерживает очередь и помечается FAILED")
+    void testAsyncTransfer_PoisonedRowFailsAfterMaxAttempts() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+
+        // Зачисление на эту карту не помещается в DECIMAL(19,2): откатывается вся транзакция, а не один перевод
+        Long fullCardId = createCard(userId);
+        Card fullCard = cardRepository.findById(fullCardId).orElseThrow();
+        fullCard.setBalance(new BigDecimal("99999999999999999.00"));
+        cardRepository.save(fullCard);
+
+        String firstId = submitAsyncTransfer(cardId1, cardId2, "100.00");
+        String poisonedId = submitAsyncTransfer(cardId1, fullCardId, "1.00");
+        String secondId = submitAsyncTransfer(cardId1, cardId2, "50.00");
+
+        awaitAsyncTransfer(firstId).andExpect(jsonPath("$.status").value("COMPLETED"));
+        awaitAsyncTransfer(secondId).andExpect(jsonPath("$.status").value("COMPLETED"));
+        awaitAsyncTransfer(poisonedId)
+                .andExpect(jsonPath("$.status").value("FAILED"))
+                .andExpect(jsonPath("$.error").exists());
+
+        assertThat(asyncTransferRepository.findById(UUID.fromString(poisonedId)).orElseThrow().getAttempts())
+                .isEqualTo(5);
+        assertThat(cardRepository.findById(cardId1).get().getBalance()).isEqualByComparingTo("850.00");
+        assertThat(cardRepository.findById(fullCardId).get().getBalance())
+                .isEqualByComparingTo("99999999999999999.00");
+    }
+
+    @Test
+    @Order(49)
+    @DisplayName("49. Месячная выписка карты с шардированным балансом суммирует части итогов")
+    void testCardStatement_ShardedCardSumsRollupShards() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        topUpCard(cardId1, "1000.00");
+        mockMvc.perform(post("/api/v1/cards/admin/" + cardId2 + "/balance-shards")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("shards", "4"))
+                .andExpect(status().isOk());
+
+        for (int i = 0; i < 8; i++) {
+            topUpCard(cardId2, "10.00");
+        }
+        transferForCheckpoint("30.00");
+        String month = YearMonth.now(ZoneOffset.UTC).toString();
+
+        // Зачисления лежат в частях итогов с номерами частей баланса
+        List<CardMonthlyRollup> rollups = cardMonthlyRollupRepository
+                .findAllByCardIdAndStatementMonth(cardId2, YearMonth.parse(month));
+        assertThat(rollups).isNotEmpty();
+        assertThat(rollups).allSatisfy(rollup -> assertThat(rollup.getShardNo()).isBetween(0, 3));
+        assertStatement(cardId2, month, 110.00, 9, 0, 0);
+
+        // Пересборка сводит части месяца в одну строку с теми же итогами
+        cardMonthlyRollupRepository.deleteAll();
+        awaitStatementRebuild(startStatementRebuild())
+                .andExpect(jsonPath("$.status").value("COMPLETED"));
+
+        assertThat(cardMonthlyRollupRepository.findAllByCardIdAndStatementMonth(cardId2, YearMonth.parse(month)))
+                .hasSize(1);
+        assertStatement(cardId2, month, 110.00, 9, 0, 0);
+        assertStatement(cardId1, month, 1000.00, 1, 30.00, 1);
+    }
+
+    @Test
+    @Order(50)
+    @DisplayName("50. Контрольные точки: архивные переводы учтены, карта без операций получает точку каждые сутки")
+    void testBalanceCheckpoints_IncludeArchiveAndCarryForward() throws Exception {
+        setupAdminAndUser();
+        createCardsForUser();
+        cardBalanceCheckpointRepository.deleteAll();
+        topUpCard(cardId1, "1000.00");
+        transferForCheckpoint("300.00");
+        Thread.sleep(5);
+        assertThat(transactionArchiver.archiveBefore(Instant.now())).isEqualTo(1);
+        Instant first = Instant.now().truncatedTo(ChronoUnit.MILLIS).plusMillis(1);
+        Thread.sleep(5);
+        balanceCheckpointJob.buildCheckpoints(first);
+
+        // Сутки без операций в БД: архивный перевод добавляется к перенесенным точкам
+        transferForCheckpoint("50.00");
+        Thread.sleep(5);
+        assertThat(transactionArchiver.archiveBefore(Instant.now())).isEqualTo(1);
+        Instant second = Instant.now().truncatedTo(ChronoUnit.MILLIS).plusMillis(1);
+        Thread.sleep(5);
+        balanceCheckpointJob.buildCheckpoints(second);
+
+        // Сутки без операций совсем: точки переносятся как есть
+        Thread.sleep(5);
+        Instant third = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        balanceCheckpointJob.buildCheckpoints(third);
+
+        assertThat(checkpointBalance(cardId1, first)).isEqualByComparingTo("700.00");
+        assertThat(checkpointBalance(cardId2, first)).isEqualByComparingTo("300.00");
+        assertThat(checkpointBalance(cardId1, second)).isEqualByComparingTo("650.00");
+        assertThat(checkpointBalance(cardId1, third)).isEqualByComparingTo("650.00");
+        assertThat(checkpointBalance(cardId2, third)).isEqualByComparingTo("350.00");
+
+        mockMvc.perform(get("/api/v1/cards/my/" + cardId1 + "/balance")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("at", third.plusMillis(1).toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(650.00));
+    }
+
     // ==================== HELPER METHODS ====================
 
+    /**
+     * Список карт и ожидаемое число SQL-запросов на один вызов (с проверкой токена и пользователя)
+     */
+    private record Listing(String path, String token, String param, String value, long statements) {
+    }
+
+    private long countStatements(Listing listing, int size) throws Exception {
+        SqlStatementCounter.reset();
+        mockMvc.perform(get(listing.path())
+                        .header("Authorization", "Bearer " + listing.token())
+                        .param(listing.param(), listing.value())
+                        .param("size", String.valueOf(size)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(size))
+                .andExpect(jsonPath("$.hasNext").value(true));
+        return SqlStatementCounter.count();
+    }
+
+    private Long createCard(Long ownerId) throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/v1/cards/admin/create")
+                        .header("Authorization", "Bearer " + adminToken)
+                        .param("ownerId", ownerId.toString()))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(result.getResponse().getContentAsString()).path("data").path("id").asLong();
+    }
+
+    private ResultActions assertStatement(Long cardId, String month, double incoming, int incomingCount,
+                                          double outgoing, int outgoingCount) throws Exception {
+        return mockMvc.perform(get("/api/v1/cards/my/" + cardId + "/statements")
+                        .header("Authorization", "Bearer " + userToken)
+                        .param("month", month))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.month").value(month))
+                .andExpect(jsonPath("$.incomingAmount").value(incoming))
+                .andExpect(jsonPath("$.incomingCount").value(incomingCount))
+                .andExpect(jsonPath("$.outgoingAmount").value(outgoing))
+                .andExpect(jsonPath("$.outgoingCount").value(outgoingCount));
+    }
+
+    private String export(String format, Instant from) throws Exception {
+        var exportRequest = get("/api/v1/transactions/my/export")
+                .header("Authorization", "Bearer " + userToken)
+                .param("format", format);
+        if (from != null) {
+            exportRequest.param("from", from.toString());
+        }
+        MvcResult started = mockMvc.perform(exportRequest)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        return mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", containsString("attachment")))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+    }
+
+    // Точка карты ровно на момент at
+    private BigDecimal checkpointBalance(Long cardId, Instant at) {
+        CardBalanceCheckpoint checkpoint = cardBalanceCheckpointRepository
+                .findFirstByCardIdAndCheckpointAtLessThanEqualOrderByCheckpointAtDesc(cardId, at)
+                .orElseThrow();
+        assertThat(checkpoint.getCheckpointAt()).isEqualTo(at);
+        return checkpoint.getBalance();
+    }
+
+    private void transferForCheckpoint(String amount) throws Exception {
+        TransferRequest request = TransferRequest.builder()
+                .fromCardId(cardId1)
+                .toCardId(cardId2)
+                .amount(new BigDecimal(amount))
+                .build();
+        mockMvc.perform(post("/api/v1/transactions/transfer")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk());
+    }
+
+    private Long startReconciliation() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/v1/admin/reconciliation/runs")
+                        .header("Authorization", "Bearer " + adminToken))
+                .andExpect(status().isAccepted())
+                .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString()).path("data").path("id").asLong();
+    }
+
+    private ResultActions awaitReconciliation(Long runId) throws Exception {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            MvcResult result = mockMvc.perform(get("/api/v1/admin/reconciliation/runs/" + runId)
+                            .header("Authorization", "Bearer " + adminToken))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            if (!result.getResponse().getContentAsString().contains("\"RUNNING\"")) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return mockMvc.perform(get("/api/v1/admin/reconciliation/runs/" + runId)
+                .header("Authorization", "Bearer " + adminToken));
+    }
+
+    private Long startStatementRebuild() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/v1/cards/admin/statements/rebuild")
+                        .header("Authorization", "Bearer " + adminToken))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString()).path("data").path("id").asLong();
+    }
+
+    private ResultActions awaitStatementRebuild(Long runId) throws Exception {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            MvcResult result = mockMvc.perform(get("/api/v1/cards/admin/statements/rebuild/" + runId)
+                            .header("Authorization", "Bearer " + adminToken))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            if (!result.getResponse().getContentAsString().contains("\"RUNNING\"")) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return mockMvc.perform(get("/api/v1/cards/admin/statements/rebuild/" + runId)
+                .header("Authorization", "Bearer " + adminToken));
+    }
+
+    private String submitAsyncTransfer(Long fromCardId, Long toCardId, String amount) throws Exception {
+        TransferRequest request = TransferRequest.builder()
+                .fromCardId(fromCardId)
+                .toCardId(toCardId)
+                .amount(new BigDecimal(amount))
+                .build();
+
+        MvcResult result = mockMvc.perform(post("/api/v1/transactions/transfer/async")
+                        .header("Authorization", "Bearer " + userToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andExpect(jsonPath("$.data.status").value("PENDING"))
+                .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString()).path("data").path("id").asText();
+    }
+
+    private ResultActions awaitAsyncTransfer(String transferId) throws Exception {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            MvcResult result = mockMvc.perform(get("/api/v1/transactions/transfer/" + transferId)
+                            .header("Authorization", "Bearer " + userToken))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            if (!result.getResponse().getContentAsString().contains("\"PENDING\"")) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return mockMvc.perform(get("/api/v1/transactions/transfer/" + transferId)
+                .header("Authorization", "Bearer " + userToken));
+    }
+
     private void setupAdminAndUser() throws Exception {
         if (adminToken == null || userToken == null) {
             // Register and login admin
@@ -0,0 +1,148 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.config.ReplicaRoutingDataSource;
+import com.example.bankcards.dto.response.CardResponse;
+import com.example.bankcards.entity.Role;
+import com.example.bankcards.entity.User;
+import com.example.bankcards.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Чтение с реплики: вторая база H2 в памяти играет роль реплики, «репликация» — копия основной БД через SCRIPT/RUNSCRIPT.
+ * Отставание реплики задается в ее таблице replica_status (NULL — неизвестно, как POSTGRES_LAG_QUERY без потоковой репликации).
+ * Сам POSTGRES_LAG_QUERY проверяется на PostgreSQL при заданной EXPLAIN_POSTGRES_URL
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+        "app.datasource.replicas.enabled=true",
+        "app.datasource.replicas.urls=" + ReplicaRoutingTest.REPLICA_URL,
+        "app.datasource.replicas.max-staleness=1s",
+        "app.datasource.replicas.check-interval=PT1H",
+        "app.datasource.replicas.lag-query=SELECT lag_millis FROM replica_status"
+})
+@ActiveProfiles("test")
+class ReplicaRoutingTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:bank_routing_primary;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+    static final String REPLICA_URL = "jdbc:h2:mem:bank_routing_replica;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+
+    private static final String SNAPSHOT = "target/replica-routing-snapshot.sql";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    @Test
+    @DisplayName("Чтение readOnly идет на реплику, при отставании или сбое реплики — на основную БД")
+    void readOnlyTransactions_RoutedToHealthyReplica() {
+        User user = userRepository.save(User.builder()
+                .phoneNumber("+77010000099")
+                .username("replica_user")
+                .password("password")
+                .role(Role.USER)
+                .build());
+        CardResponse card = cardService.createCard(user.getId());
+        jdbcTemplate.update("UPDATE cards SET balance = 100 WHERE id = ?", card.getId());
+        replicate(0);
+        jdbcTemplate.update("UPDATE cards SET balance = 500 WHERE id = ?", card.getId());
+
+        // Реплика еще не получила последнее изменение
+        assertThat(balance(user, card)).isEqualByComparingTo("100");
+        assertThat(connections("replica-1")).isPositive();
+
+        // Отставание больше max-staleness — чтение с основной БД
+        replica.update("UPDATE replica_status SET lag_millis = 60000");
+        replicaRoutingDataSource.checkReplicas();
+        assertThat(balance(user, card)).isEqualByComparingTo("500");
+        assertThat(meterRegistry.get("bankcards.datasource.replica.fallbacks").counter().count()).isPositive();
+
+        // Проверка не прошла — реплика исключена до следующей успешной проверки
+        replica.execute("DROP TABLE replica_status");
+        replicaRoutingDataSource.checkReplicas();
+        assertThat(meterRegistry.get("bankcards.datasource.replica.healthy").tag("datasource", "replica-1")
+                .gauge().value()).isZero();
+        assertThat(balance(user, card)).isEqualByComparingTo("500");
+
+        replica.execute("CREATE TABLE replica_status (lag_millis BIGINT)");
+        replica.update("INSERT INTO replica_status VALUES (0)");
+        replicaRoutingDataSource.checkReplicas();
+        assertThat(balance(user, card)).isEqualByComparingTo("100");
+
+        // Отставание неизвестно (WAL receiver не в состоянии streaming) — реплика доступна, но чтение с основной БД
+        replica.update("UPDATE replica_status SET lag_millis = NULL");
+        replicaRoutingDataSource.checkReplicas();
+        assertThat(meterRegistry.get("bankcards.datasource.replica.healthy").tag("datasource", "replica-1")
+                .gauge().value()).isEqualTo(1);
+        assertThat(balance(user, card)).isEqualByComparingTo("500");
+
+        replica.update("UPDATE replica_status SET lag_millis = 0");
+        replicaRoutingDataSource.checkReplicas();
+        assertThat(balance(user, card)).isEqualByComparingTo("100");
+
+        // Запись и чтение вне readOnly-транзакции — всегда основная БД
+        assertThat(jdbcTemplate.queryForObject("SELECT balance FROM cards WHERE id = ?", BigDecimal.class,
+                card.getId())).isEqualByComparingTo("500");
+        assertThat(connections(ReplicaRoutingDataSource.PRIMARY)).isPositive();
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "EXPLAIN_POSTGRES_URL", matches = ".+")
+    @DisplayName("Запрос отставания выполняется на PostgreSQL: основная БД не отстает")
+    void postgresLagQuery_ZeroOnPrimary() throws Exception {
+        try (Connection connection = DriverManager.getConnection(System.getenv("EXPLAIN_POSTGRES_URL"),
+                System.getenv().getOrDefault("EXPLAIN_POSTGRES_USER", "postgres"),
+                System.getenv().getOrDefault("EXPLAIN_POSTGRES_PASSWORD", "postgres"));
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(ReplicaRoutingDataSource.POSTGRES_LAG_QUERY)) {
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getLong(1)).isZero();
+            assertThat(rs.wasNull()).isFalse();
+        }
+    }
+
+    private BigDecimal balance(User user, CardResponse card) {
+        return cardService.getCardBalance(user.getId(), card.getId()).getBalance();
+    }
+
+    private double connections(String datasource) {
+        return meterRegistry.get("bankcards.datasource.connections").tag("datasource", datasource).counter().count();
+    }
+
+    private void replicate(long lagMillis) {
+        jdbcTemplate.execute("SCRIPT TO '" + SNAPSHOT + "'");
+        replica.execute("DROP ALL OBJECTS");
+        replica.execute("RUNSCRIPT FROM '" + SNAPSHOT + "'");
+        replica.execute("CREATE TABLE replica_status (lag_millis BIGINT)");
+        replica.update("INSERT INTO replica_status VALUES (?)", lagMillis);
+        replicaRoutingDataSource.checkReplicas();
+    }
+}
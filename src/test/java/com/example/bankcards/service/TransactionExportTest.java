@@ -0,0 +1,145 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Role;
+import com.example.bankcards.entity.User;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class TransactionExportTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionExportTest.class);
+
+    private static final int ROWS = 1_000_000;
+    private static final int SAMPLE_EVERY = 100_000;
+    private static final long MAX_HEAP_GROWTH = 32L * 1024 * 1024;
+
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long userId;
+    private Long cardA;
+    private Long cardB;
+
+    @BeforeEach
+    void setUp() {
+        User user = userRepository.save(User.builder()
+                .username("export_user")
+                .password("password123")
+                .phoneNumber("+77000000077")
+                .role(Role.USER)
+                .build());
+        userId = user.getId();
+        cardA = createCard(user, "1111");
+        cardB = createCard(user, "2222");
+
+        jdbcTemplate.update("""
+                INSERT INTO transactions (id, amount, from_card_id, to_card_id, created_at, from_owner_id, to_owner_id)
+                SELECT RANDOM_UUID(), 1.00, ?, ?, DATEADD('SECOND', "X", TIMESTAMP '2024-01-01 00:00:00'), ?, ?
+                FROM SYSTEM_RANGE(1, ?)
+                """, cardA, cardB, userId, userId, ROWS);
+    }
+
+    // Миллион строк удаляется без построчного DELETE: deleteAll() в других тестах загрузил бы их все в память
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.execute("TRUNCATE TABLE transactions");
+        cardRepository.deleteAllById(List.of(cardA, cardB));
+        userRepository.deleteById(userId);
+    }
+
+    @Test
+    @DisplayName("Выгрузка миллиона транзакций в NDJSON не накапливает строки в памяти")
+    void exportMillionRows_FlatHeap() throws Exception {
+        HeapSamplingStream out = new HeapSamplingStream();
+
+        long startedAt = System.nanoTime();
+        transactionExportService.exportMyTransactions(userId, ExportFormat.NDJSON, null, null).writeTo(out);
+        long elapsedNanos = System.nanoTime() - startedAt;
+
+        // Занятая куча не должна расти с числом выгруженных строк (уменьшаться может)
+        long first = out.samples.get(0);
+        long max = out.samples.stream().mapToLong(Long::longValue).max().orElseThrow();
+        log.info("Выгрузка {} строк ({} МБ): {} мс, занятая куча по ходу выгрузки {} МБ",
+                out.lines, out.bytes / (1024 * 1024), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                out.samples.stream().map(used -> used / (1024 * 1024)).toList());
+
+        assertThat(out.lines).isEqualTo(ROWS);
+        assertThat(out.samples).hasSize(ROWS / SAMPLE_EVERY);
+        assertThat(max - first).isLessThan(MAX_HEAP_GROWTH);
+    }
+
+    private Long createCard(User owner, String lastFour) {
+        Card card = Card.builder()
+                .owner(owner)
+                .cardNumberEncrypted("encrypted-export-" + lastFour)
+                .lastFour(lastFour)
+                .expiryDate(YearMonth.now().plusYears(5))
+                .status(CardStatus.ACTIVE)
+                .balance(BigDecimal.ZERO)
+                .build();
+        return cardRepository.save(card).getId();
+    }
+
+    /**
+     * Отбрасывает данные, считает строки и после каждых SAMPLE_EVERY строк замеряет занятую кучу после сборки мусора
+     */
+    private static class HeapSamplingStream extends OutputStream {
+
+        private final List<Long> samples = new ArrayList<>();
+        private long bytes;
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            count(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                count(b[i]);
+            }
+        }
+
+        private void count(int b) {
+            bytes++;
+            if (b == '\n' && ++lines % SAMPLE_EVERY == 0) {
+                Runtime runtime = Runtime.getRuntime();
+                System.gc();
+                samples.add(runtime.totalMemory() - runtime.freeMemory());
+            }
+        }
+    }
+}
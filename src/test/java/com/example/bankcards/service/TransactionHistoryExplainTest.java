@@ -0,0 +1,224 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.TransactionRepository;
+import com.example.bankcards.service.impl.TransactionPartitionManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Проверка планов запросов истории на PostgreSQL: схема создается миграциями Liquibase,
+ * таблицы заполняются тестовыми данными, и EXPLAIN не должен содержать последовательного просмотра.
+ * Запускается только при заданной переменной EXPLAIN_POSTGRES_URL (например, jdbc:postgresql://localhost:5432/bank_explain),
+ * пользователь и пароль берутся из EXPLAIN_POSTGRES_USER и EXPLAIN_POSTGRES_PASSWORD
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfEnvironmentVariable(named = "EXPLAIN_POSTGRES_URL", matches = ".+")
+class TransactionHistoryExplainTest {
+
+    private static final int USERS = 2_000;
+    private static final int CARDS_PER_USER = 3;
+    private static final int TRANSACTIONS = 300_000;
+    private static final OffsetDateTime UTC_EPOCH = Instant.EPOCH.atOffset(ZoneOffset.UTC);
+    private static final OffsetDateTime UNBOUNDED_TO = OffsetDateTime.of(9999, 12, 31, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getenv("EXPLAIN_POSTGRES_URL"));
+        registry.add("spring.datasource.username", () -> System.getenv().getOrDefault("EXPLAIN_POSTGRES_USER", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getenv().getOrDefault("EXPLAIN_POSTGRES_PASSWORD", "postgres"));
+        registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "none");
+        registry.add("spring.jpa.properties.hibernate.dialect", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        registry.add("spring.liquibase.enabled", () -> "true");
+        registry.add("spring.liquibase.drop-first", () -> "true");
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private TransactionPartitionManager transactionPartitionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeAll
+    void seed() {
+        jdbcTemplate.update("""
+                INSERT INTO users (phone_number, username, password, role)
+                SELECT '+7' || lpad(g::text, 10, '0'), 'explain_user_' || g, 'password', 'USER'
+                FROM generate_series(1, ?) g
+                """, USERS);
+        jdbcTemplate.update("""
+                INSERT INTO cards (card_number_encrypted, last_four, owner_id, expiry_date, status, balance)
+                SELECT 'encrypted-' || u.id || '-' || n, lpad(n::text, 4, '0'), u.id, '2030-12', 'ACTIVE', 100000
+                FROM users u CROSS JOIN generate_series(1, ?) n
+                """, CARDS_PER_USER);
+        jdbcTemplate.update("""
+                WITH ids AS (SELECT min(id) AS lo, max(id) AS hi FROM cards)
+                INSERT INTO transactions (id, amount, from_card_id, to_card_id, created_at)
+                SELECT gen_random_uuid(), 1.00,
+                       ids.lo + floor(random() * (ids.hi - ids.lo + 1))::bigint,
+                       ids.lo + floor(random() * (ids.hi - ids.lo + 1))::bigint,
+                       now() - g * interval '1 minute'
+                FROM ids, generate_series(1, ?) g
+                """, TRANSACTIONS);
+        jdbcTemplate.update("""
+                UPDATE transactions t
+                SET from_owner_id = (SELECT c.owner_id FROM cards c WHERE c.id = t.from_card_id),
+                    to_owner_id = (SELECT c.owner_id FROM cards c WHERE c.id = t.to_card_id)
+                """);
+        jdbcTemplate.execute("ANALYZE users");
+        jdbcTemplate.execute("ANALYZE cards");
+        jdbcTemplate.execute("ANALYZE transactions");
+    }
+
+    @Test
+    @DisplayName("Страница истории по номеру читается по индексам без Seq Scan")
+    void pageQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.USER_HISTORY_SQL + " LIMIT 20 OFFSET 40",
+                Map.of("userId", someUserId(), "from", UTC_EPOCH, "to", UNBOUNDED_TO, "window", 60));
+    }
+
+    @Test
+    @DisplayName("Подсчет строк истории читается по индексам без Seq Scan")
+    void countQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.USER_HISTORY_COUNT_SQL, Map.of(
+                "userId", someUserId(), "from", UTC_EPOCH, "to", UNBOUNDED_TO));
+    }
+
+    @Test
+    @DisplayName("Страница истории после курсора читается по индексам без Seq Scan")
+    void cursorQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.USER_HISTORY_AFTER_SQL, Map.of(
+                "userId", someUserId(),
+                "from", UTC_EPOCH,
+                "to", UNBOUNDED_TO,
+                "createdAt", Instant.now().minusSeconds(3_600).atOffset(ZoneOffset.UTC),
+                "id", UUID.randomUUID(),
+                "limit", 21));
+    }
+
+    @Test
+    @DisplayName("Страница истории по колонкам владельцев читается по индексам без Seq Scan")
+    void ownerPageQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.OWNER_HISTORY_SQL + " LIMIT 20 OFFSET 40",
+                Map.of("userId", someUserId(), "from", UTC_EPOCH, "to", UNBOUNDED_TO, "window", 60));
+    }
+
+    @Test
+    @DisplayName("Подсчет истории по колонкам владельцев читается по индексам без Seq Scan")
+    void ownerCountQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.OWNER_HISTORY_COUNT_SQL, Map.of(
+                "userId", someUserId(), "from", UTC_EPOCH, "to", UNBOUNDED_TO));
+    }
+
+    @Test
+    @DisplayName("Страница истории по колонкам владельцев после курсора читается по индексам без Seq Scan")
+    void ownerCursorQuery_UsesIndexes() {
+        assertNoSeqScan(TransactionRepository.OWNER_HISTORY_AFTER_SQL, Map.of(
+                "userId", someUserId(),
+                "from", UTC_EPOCH,
+                "to", UNBOUNDED_TO,
+                "createdAt", Instant.now().minusSeconds(3_600).atOffset(ZoneOffset.UTC),
+                "id", UUID.randomUUID(),
+                "limit", 21));
+    }
+
+    @Test
+    @DisplayName("История за период в будущих месяцах читает только их секции")
+    void boundedHistory_PrunesPartitions() {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        transactionPartitionManager.ensurePartitions(current);
+        YearMonth month = current.plusMonths(2);
+
+        String plan = String.join("\n", namedParameterJdbcTemplate.queryForList(
+                "EXPLAIN " + TransactionRepository.OWNER_HISTORY_SQL + " LIMIT 20",
+                Map.of("userId", someUserId(),
+                        "from", month.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC),
+                        "to", month.plusMonths(1).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC),
+                        "window", 20),
+                String.class));
+
+        assertThat(plan).contains(TransactionPartitionManager.partitionName(month));
+        assertThat(plan).doesNotContain("transactions_legacy");
+        assertThat(plan).doesNotContain(TransactionPartitionManager.partitionName(month.plusMonths(1)));
+    }
+
+    @Test
+    @DisplayName("Прерванное отключение секции завершается через DETACH PARTITION ... FINALIZE")
+    void interruptedDetach_IsFinalized() throws SQLException {
+        YearMonth month = YearMonth.of(2099, 12);
+        String name = TransactionPartitionManager.partitionName(month);
+        jdbcTemplate.execute(String.format(
+                "CREATE TABLE %s PARTITION OF transactions FOR VALUES FROM ('%s') TO ('%s')",
+                name, month.atDay(1), month.plusMonths(1).atDay(1)));
+
+        // Открытый снимок читателя не дает DETACH ... CONCURRENTLY дождаться, его прерывает statement_timeout
+        try (Connection reader = dataSource.getConnection(); Connection detacher = dataSource.getConnection()) {
+            reader.setAutoCommit(false);
+            try (Statement statement = reader.createStatement()) {
+                statement.executeQuery("SELECT count(*) FROM " + name).close();
+            }
+            try (Statement statement = detacher.createStatement()) {
+                statement.execute("SET statement_timeout = '1s'");
+                assertThatThrownBy(() -> statement.execute(
+                        "ALTER TABLE transactions DETACH PARTITION " + name + " CONCURRENTLY"))
+                        .isInstanceOf(SQLException.class);
+                statement.execute("RESET statement_timeout");
+            }
+            reader.rollback();
+        }
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT inhdetachpending FROM pg_inherits WHERE inhrelid = to_regclass(?)", Boolean.class, name))
+                .isTrue();
+
+        // Секций раньше 2000 года нет: отключается только секция в состоянии detach pending
+        assertThat(transactionPartitionManager.detachPartitionsBefore(YearMonth.of(2000, 1))).containsExactly(name);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_inherits WHERE inhrelid = to_regclass(?)", Integer.class, name))
+                .isZero();
+    }
+
+    private Long someUserId() {
+        return jdbcTemplate.queryForObject("SELECT min(id) FROM users", Long.class);
+    }
+
+    // Пустые секции будущих месяцев планировщик читает последовательным просмотром — это ничего не стоит
+    private void assertNoSeqScan(String sql, Map<String, ?> params) {
+        List<String> plan = namedParameterJdbcTemplate.queryForList("EXPLAIN " + sql, params, String.class).stream()
+                .filter(line -> !line.matches(".*Seq Scan on " + TransactionPartitionManager.PARTITION_PREFIX + "\\d{6}.*"))
+                .toList();
+        assertThat(String.join("\n", plan)).doesNotContain("Seq Scan");
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.util.TimeOrderedUuidGenerator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сравнение идентификаторов transactions на PostgreSQL: UUID версии 4 (прежний GenerationType.UUID)
+ * и UUID версии 7 (TimeOrderedUuidGenerator). В две таблицы со схемой transactions вставляется по BENCHMARK_ROWS строк
+ * (по умолчанию 50 000 000) пачками, печатаются скорость вставки по частям и размер индекса первичного ключа.
+ * Запускается только при заданной переменной BENCHMARK_POSTGRES_URL (для пакетной вставки добавьте к URL
+ * reWriteBatchedInserts=true), пользователь и пароль берутся из BENCHMARK_POSTGRES_USER и BENCHMARK_POSTGRES_PASSWORD.
+ * Чтобы проявилась разница, индекс должен превышать shared_buffers
+ */
+@EnabledIfEnvironmentVariable(named = "BENCHMARK_POSTGRES_URL", matches = ".+")
+class TransactionIdBenchmarkTest {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int REPORTS = 10;
+
+    @Test
+    @DisplayName("UUID версии 7: вставка не медленнее и индекс первичного ключа меньше, чем у версии 4")
+    void timeOrderedIds_KeepPrimaryKeyIndexCompact() throws SQLException {
+        long rows = Long.parseLong(System.getenv().getOrDefault("BENCHMARK_ROWS", "50000000"));
+
+        try (Connection connection = DriverManager.getConnection(
+                System.getenv("BENCHMARK_POSTGRES_URL"),
+                System.getenv().getOrDefault("BENCHMARK_POSTGRES_USER", "postgres"),
+                System.getenv().getOrDefault("BENCHMARK_POSTGRES_PASSWORD", "postgres"))) {
+
+            Result random = run(connection, "bench_transactions_uuid_v4", UUID::randomUUID, rows);
+            Result timeOrdered = run(connection, "bench_transactions_uuid_v7", TimeOrderedUuidGenerator::next, rows);
+
+            System.out.printf("UUID v4: %,d строк/с, индекс %,d байт%n", random.rowsPerSecond(), random.indexBytes());
+            System.out.printf("UUID v7: %,d строк/с, индекс %,d байт%n", timeOrdered.rowsPerSecond(), timeOrdered.indexBytes());
+
+            assertThat(timeOrdered.indexBytes()).isLessThan(random.indexBytes());
+            assertThat(timeOrdered.rowsPerSecond()).isGreaterThanOrEqualTo(random.rowsPerSecond());
+        }
+    }
+
+    private Result run(Connection connection, String table, Supplier<UUID> ids, long rows) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + table);
+            statement.execute("CREATE TABLE " + table + " (id UUID PRIMARY KEY, amount DECIMAL(19, 2) NOT NULL, "
+                    + "from_card_id BIGINT NOT NULL, to_card_id BIGINT NOT NULL, created_at TIMESTAMPTZ NOT NULL)");
+        }
+
+        connection.setAutoCommit(false);
+        BigDecimal amount = new BigDecimal("1.00");
+        long reportEvery = Math.max(rows / REPORTS, BATCH_SIZE);
+        long started = System.nanoTime();
+        long chunkStarted = started;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table
+                + " (id, amount, from_card_id, to_card_id, created_at) VALUES (?, ?, ?, ?, ?)")) {
+            for (long row = 1; row <= rows; row++) {
+                insert.setObject(1, ids.get());
+                insert.setBigDecimal(2, amount);
+                insert.setLong(3, row % 1000);
+                insert.setLong(4, (row + 1) % 1000);
+                insert.setObject(5, OffsetDateTime.ofInstant(Instant.now(), ZoneOffset.UTC));
+                insert.addBatch();
+                if (row % BATCH_SIZE == 0 || row == rows) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+                if (row % reportEvery == 0) {
+                    long now = System.nanoTime();
+                    System.out.printf("%s: %,d строк, %,d строк/с на последней части%n",
+                            table, row, reportEvery * 1_000_000_000L / Math.max(now - chunkStarted, 1));
+                    chunkStarted = now;
+                }
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        long elapsed = Math.max(System.nanoTime() - started, 1);
+
+        try (Statement statement = connection.createStatement()) {
+            long indexBytes;
+            try (ResultSet size = statement.executeQuery("SELECT pg_relation_size('" + table + "_pkey')")) {
+                size.next();
+                indexBytes = size.getLong(1);
+            }
+            statement.execute("DROP TABLE " + table);
+            return new Result(rows * 1_000_000_000L / elapsed, indexBytes);
+        }
+    }
+
+    private record Result(long rowsPerSecond, long indexBytes) {
+    }
+}
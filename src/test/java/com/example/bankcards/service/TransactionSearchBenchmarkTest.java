@@ -0,0 +1,148 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.TransactionSearchFilter;
+import com.example.bankcards.service.impl.TransactionOwnerBackfill;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Задержка поиска транзакций на PostgreSQL: схема создается миграциями Liquibase, transactions заполняется
+ * SEARCH_BENCHMARK_ROWS строками (по умолчанию 10 000 000) за последний год, затем выполняются случайные поиски
+ * (сумма около случайного значения, период в неделю, последние цифры карты контрагента) и проверяется,
+ * что p99 не больше SEARCH_P99_MILLIS (по умолчанию 50).
+ * Запускается только при заданной переменной BENCHMARK_POSTGRES_URL, пользователь и пароль берутся
+ * из BENCHMARK_POSTGRES_USER и BENCHMARK_POSTGRES_PASSWORD
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfEnvironmentVariable(named = "BENCHMARK_POSTGRES_URL", matches = ".+")
+class TransactionSearchBenchmarkTest {
+
+    private static final int USERS = 20_000;
+    private static final int CARDS_PER_USER = 3;
+    private static final int WARMUP_SEARCHES = 200;
+    private static final int SEARCHES = 1_000;
+    private static final int PAGE_SIZE = 20;
+    private static final Duration SEEDED_PERIOD = Duration.ofDays(365);
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getenv("BENCHMARK_POSTGRES_URL"));
+        registry.add("spring.datasource.username", () -> System.getenv().getOrDefault("BENCHMARK_POSTGRES_USER", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getenv().getOrDefault("BENCHMARK_POSTGRES_PASSWORD", "postgres"));
+        registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "none");
+        registry.add("spring.jpa.properties.hibernate.dialect", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        registry.add("spring.liquibase.enabled", () -> "true");
+        registry.add("spring.liquibase.drop-first", () -> "true");
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionsService transactionsService;
+
+    @Autowired
+    private TransactionOwnerBackfill ownerBackfill;
+
+    private Instant seededAt;
+    private long minUserId;
+
+    @BeforeAll
+    void seed() {
+        long rows = Long.parseLong(System.getenv().getOrDefault("SEARCH_BENCHMARK_ROWS", "10000000"));
+        seededAt = Instant.now();
+
+        jdbcTemplate.update("""
+                INSERT INTO users (phone_number, username, password, role)
+                SELECT '+7' || lpad(g::text, 10, '0'), 'search_user_' || g, 'password', 'USER'
+                FROM generate_series(1, ?) g
+                """, USERS);
+        jdbcTemplate.update("""
+                INSERT INTO cards (card_number_encrypted, last_four, owner_id, expiry_date, status, balance)
+                SELECT 'encrypted-' || u.id || '-' || n, lpad(((u.id * 7 + n * 1237) % 10000)::text, 4, '0'),
+                       u.id, '2030-12', 'ACTIVE', 100000
+                FROM users u CROSS JOIN generate_series(1, ?) n
+                """, CARDS_PER_USER);
+        // Владельцы заполняются сразу: поиск идет по колонкам владельцев, как после TransactionOwnerBackfill
+        jdbcTemplate.update("""
+                WITH ids AS (SELECT min(id) AS lo, count(*) AS n FROM cards)
+                INSERT INTO transactions (id, amount, from_card_id, to_card_id, from_owner_id, to_owner_id, created_at)
+                SELECT gen_random_uuid(), round((random() * 100000)::numeric, 2),
+                       f.id, t.id, f.owner_id, t.owner_id,
+                       ?::timestamptz - g * (? * interval '1 millisecond')
+                FROM ids
+                CROSS JOIN generate_series(1, ?) g
+                JOIN cards f ON f.id = ids.lo + (g * 7919) % ids.n
+                JOIN cards t ON t.id = ids.lo + (g * 104729 + 1) % ids.n
+                """, seededAt.toString(), SEEDED_PERIOD.toMillis() / rows, rows);
+        jdbcTemplate.execute("ANALYZE users");
+        jdbcTemplate.execute("ANALYZE cards");
+        jdbcTemplate.execute("ANALYZE transactions");
+        ownerBackfill.backfillAll();
+
+        minUserId = jdbcTemplate.queryForObject("SELECT min(id) FROM users", Long.class);
+    }
+
+    @Test
+    @DisplayName("p99 поиска по сумме, периоду и карте контрагента не больше порога")
+    void search_P99WithinTarget() {
+        long targetMillis = Long.parseLong(System.getenv().getOrDefault("SEARCH_P99_MILLIS", "50"));
+        Random random = new Random(42);
+
+        for (int i = 0; i < WARMUP_SEARCHES; i++) {
+            search(random);
+        }
+        long[] nanos = new long[SEARCHES];
+        for (int i = 0; i < SEARCHES; i++) {
+            nanos[i] = search(random);
+        }
+        Arrays.sort(nanos);
+
+        long p50 = Duration.ofNanos(nanos[SEARCHES / 2]).toMillis();
+        long p99 = Duration.ofNanos(nanos[SEARCHES * 99 / 100]).toMillis();
+        System.out.printf("Поиск транзакций: p50 %d мс, p99 %d мс, max %d мс%n",
+                p50, p99, Duration.ofNanos(nanos[SEARCHES - 1]).toMillis());
+
+        assertThat(p99).isLessThanOrEqualTo(targetMillis);
+    }
+
+    // Случайное сочетание фильтров: сумма ±1000 около случайного значения, неделя в пределах года, карта контрагента
+    private long search(Random random) {
+        Long userId = minUserId + random.nextInt(USERS);
+        BigDecimal amount = BigDecimal.valueOf(random.nextInt(100_000));
+        Instant to = seededAt.minus(Duration.ofDays(random.nextInt((int) SEEDED_PERIOD.toDays() - 7)));
+        boolean byAmount = random.nextInt(4) != 0;
+        boolean byCounterpart = random.nextInt(3) == 0;
+
+        TransactionSearchFilter filter = new TransactionSearchFilter(
+                byAmount ? amount.subtract(BigDecimal.valueOf(1_000)).max(BigDecimal.ZERO) : null,
+                byAmount ? amount.add(BigDecimal.valueOf(1_000)) : null,
+                to.minus(Duration.ofDays(7)),
+                to,
+                byCounterpart ? String.format("%04d", random.nextInt(10_000)) : null);
+
+        long started = System.nanoTime();
+        transactionsService.searchTransactions(userId, filter, null, PAGE_SIZE);
+        return System.nanoTime() - started;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.requests.TransferRequest;
+import com.example.bankcards.dto.response.TransactionResponse;
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Role;
+import com.example.bankcards.entity.User;
+import com.example.bankcards.exception.BusinessException;
+import com.example.bankcards.exception.InsufficientFundsException;
+import com.example.bankcards.repository.CardBalanceShardRepository;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.TransactionRepository;
+import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.impl.SequencedTransferStrategy;
+import com.example.bankcards.service.impl.TransferBatchProcessor;
+import com.example.bankcards.util.TransactionMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class TransactionsConcurrencyTest {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionsConcurrencyTest.class);
+
+    private static final int THREADS = 64;
+    private static final int TRANSFERS_PER_THREAD = 20;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100000.00");
+
+    @Autowired
+    private List<TransferStrategy> transferStrategies;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CardBalanceShardRepository cardBalanceShardRepository;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransferBatchProcessor transferBatchProcessor;
+
+    @Autowired
+    private TransactionMapper transactionMapper;
+
+    private Long userId;
+    private Long cardA;
+    private Long cardB;
+
+    @BeforeEach
+    void setUp() {
+        transactionRepository.deleteAll();
+        cardBalanceShardRepository.deleteAll();
+        cardRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = userRepository.save(User.builder()
+                .username("concurrent_user")
+                .password("password123")
+                .phoneNumber("+77000000099")
+                .role(Role.USER)
+                .build());
+        userId = user.getId();
+        cardA = createCard(user, "1111");
+        cardB = createCard(user, "2222");
+    }
+
+    @Test
+    @DisplayName("Error при групповой фиксации завершает ожидающие переводы ошибкой и не останавливает обработчик")
+    void sequencedWorker_SurvivesError() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        TransferBatchProcessor failingOnce = new TransferBatchProcessor(null, null, null, null) {
+            @Override
+            public List<Outcome> process(List<Command> commands) {
+                if (calls.getAndIncrement() == 0) {
+                    throw new StackOverflowError("test");
+                }
+                return transferBatchProcessor.process(commands);
+            }
+        };
+        SequencedTransferStrategy strategy = new SequencedTransferStrategy(failingOnce, transactionMapper,
+                meterRegistry, 1, 16, 1, Duration.ZERO, Duration.ofSeconds(5));
+        TransferRequest request = TransferRequest.builder()
+                .fromCardId(cardA)
+                .toCardId(cardB)
+                .amount(new BigDecimal("1.00"))
+                .build();
+        try {
+            assertThatThrownBy(() -> strategy.transfer(userId, request, response -> {
+            }))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasCauseInstanceOf(StackOverflowError.class);
+
+            // Тот же обработчик шарда выполняет следующий перевод
+            assertThat(strategy.transfer(userId, request, response -> {
+            }).getAmount()).isEqualByComparingTo("1.00");
+            assertThat(transactionRepository.count()).isEqualTo(1);
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransferMode.class)
+    @DisplayName("Встречные переводы A→B и B→A в 64 потока выполняются без взаимных блокировок и потерь")
+    void opposingTransfers_NoDeadlocks(TransferMode mode) throws Exception {
+        TransferStrategy strategy = transferStrategies.stream()
+                .filter(s -> s.getMode() == mode)
+                .findFirst()
+                .orElseThrow();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicInteger forwardSucceeded = new AtomicInteger();
+        AtomicInteger backwardSucceeded = new AtomicInteger();
+        AtomicLong transferNanos = new AtomicLong();
+        double retriesBefore = optimisticRetries();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            boolean forward = t % 2 == 0;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    TransferRequest request = TransferRequest.builder()
+                            .fromCardId(forward ? cardA : cardB)
+                            .toCardId(forward ? cardB : cardA)
+                            .amount(new BigDecimal("1.00"))
+                            .build();
+                    long transferStartedAt = System.nanoTime();
+                    try {
+                        strategy.transfer(userId, request, response -> {
+                        });
+                        transferNanos.addAndGet(System.nanoTime() - transferStartedAt);
+                        (forward ? forwardSucceeded : backwardSucceeded).incrementAndGet();
+                    } catch (BusinessException e) {
+                        // Оптимистический режим может исчерпать повторы при сильной конкуренции
+                        if (mode == TransferMode.OPTIMISTIC && "TRANSFER_CONFLICT".equals(e.getErrorCode())) {
+                            conflicts.incrementAndGet();
+                        } else {
+                            log.error("Transfer failed", e);
+                            failures.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        log.error("Transfer failed", e);
+                        failures.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        executor.shutdown();
+
+        int succeeded = forwardSucceeded.get() + backwardSucceeded.get();
+        log.info("[{}] {} встречных переводов в {} потоков: {} мс, {} переводов/с, среднее время транзакции {} мс, "
+                        + "конфликтов {}, повторов {}",
+                mode, succeeded, THREADS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                String.format("%.1f", succeeded / (elapsedNanos / 1_000_000_000.0)),
+                String.format("%.2f", transferNanos.get() / (double) Math.max(succeeded, 1) / 1_000_000),
+                conflicts.get(), (long) (optimisticRetries() - retriesBefore));
+
+        assertThat(failures.get()).isZero();
+        assertThat(succeeded + conflicts.get()).isEqualTo(THREADS * TRANSFERS_PER_THREAD);
+        assertThat(transactionRepository.count()).isEqualTo(succeeded);
+
+        // Каждый выполненный перевод отражен в балансах ровно один раз
+        BigDecimal net = BigDecimal.valueOf(forwardSucceeded.get() - backwardSucceeded.get());
+        BigDecimal balanceA = cardRepository.findById(cardA).orElseThrow().getBalance();
+        BigDecimal balanceB = cardRepository.findById(cardB).orElseThrow().getBalance();
+        assertThat(balanceA).isEqualByComparingTo(INITIAL_BALANCE.subtract(net));
+        assertThat(balanceB).isEqualByComparingTo(INITIAL_BALANCE.add(net));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 4, 16})
+    @DisplayName("Пополнения «горячей» карты в 64 потока с N частями баланса")
+    void concurrentTopUps_ShardedBalance(int shards) throws Exception {
+        cardService.configureBalanceShards(cardA, shards);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    try {
+                        cardService.topUpCard(cardA, new BigDecimal("1.00"));
+                    } catch (RuntimeException e) {
+                        log.error("Top-up failed", e);
+                        failures.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        executor.shutdown();
+
+        int total = THREADS * TRANSFERS_PER_THREAD;
+        log.info("[shards={}] {} пополнений в {} потоков: {} мс, {} пополнений/с",
+                shards, total, THREADS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                String.format("%.1f", total / (elapsedNanos / 1_000_000_000.0)));
+
+        assertThat(failures.get()).isZero();
+        assertThat(cardService.getCardBalance(userId, cardA).getBalance())
+                .isEqualByComparingTo(INITIAL_BALANCE.add(BigDecimal.valueOf(total)));
+    }
+
+    private double optimisticRetries() {
+        Counter counter = meterRegistry.find("bankcards.transfer.optimistic.retries").counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    @DisplayName("Условный UPDATE: ответ без чтения карт, отказ откатывает зачисление, шардированный получатель")
+    void conditionalUpdate_ResponseAndFallbacks() {
+        TransferStrategy strategy = transferStrategies.stream()
+                .filter(s -> s.getMode() == TransferMode.CONDITIONAL_UPDATE)
+                .findFirst()
+                .orElseThrow();
+
+        TransactionResponse response = strategy.transfer(userId, TransferRequest.builder()
+                .fromCardId(cardA).toCardId(cardB).amount(new BigDecimal("10.00")).build(), recorded -> {
+        });
+        assertThat(response.getFromCard().getLastFour()).isEqualTo("1111");
+        assertThat(response.getToCard().getMaskedCardNumber()).isEqualTo("**** **** **** 2222");
+        assertThat(cardRepository.findById(cardA).orElseThrow().getBalance())
+                .isEqualByComparingTo(INITIAL_BALANCE.subtract(new BigDecimal("10.00")));
+
+        // Зачисление получателю уже выполнено тем же UPDATE — отказ списания откатывает его
+        assertThatThrownBy(() -> strategy.transfer(userId, TransferRequest.builder()
+                .fromCardId(cardA).toCardId(cardB).amount(INITIAL_BALANCE).build(), recorded -> {
+        })).isInstanceOf(InsufficientFundsException.class);
+        assertThat(cardRepository.findById(cardB).orElseThrow().getBalance())
+                .isEqualByComparingTo(INITIAL_BALANCE.add(new BigDecimal("10.00")));
+
+        cardService.configureBalanceShards(cardB, 2);
+        response = strategy.transfer(userId, TransferRequest.builder()
+                .fromCardId(cardA).toCardId(cardB).amount(new BigDecimal("5.00")).build(), recorded -> {
+        });
+        assertThat(response.getToCard().getLastFour()).isEqualTo("2222");
+        assertThat(cardService.getCardBalance(userId, cardB).getBalance())
+                .isEqualByComparingTo(INITIAL_BALANCE.add(new BigDecimal("15.00")));
+        assertThat(transactionRepository.count()).isEqualTo(2);
+    }
+
+    private Long createCard(User owner, String lastFour) {
+        Card card = Card.builder()
+                .owner(owner)
+                .cardNumberEncrypted("encrypted-" + lastFour)
+                .lastFour(lastFour)
+                .expiryDate(YearMonth.now().plusYears(5))
+                .status(CardStatus.ACTIVE)
+                .balance(INITIAL_BALANCE)
+                .build();
+        return cardRepository.save(card).getId();
+    }
+}